@@ -0,0 +1,115 @@
+/*
+ * cuboidx - A 3D sandbox game
+ * Copyright (C) 2023  XenFork Union
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package cuboidx.client.render.world;
+
+import cuboidx.world.chunk.Chunk;
+import org.joml.FrustumIntersection;
+import org.joml.Matrix4f;
+import org.joml.Vector4f;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares testing the chunks one by one with {@link FrustumIntersection#testAab}
+ * against testing them in batches with {@link ChunkBounds#testFrustum}.
+ *
+ * @author squid233
+ * @since 0.1.0
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FrustumCullingBenchmark {
+    @Param({"8", "16", "32"})
+    public int chunksPerAxis;
+    private int chunkCount;
+    private float[] minX, minY, minZ, maxX, maxY, maxZ;
+    private ChunkBounds bounds;
+    private final FrustumIntersection frustum = new FrustumIntersection();
+    private final float[] planes = new float[24];
+
+    @Setup
+    public void setup() {
+        chunkCount = chunksPerAxis * chunksPerAxis * chunksPerAxis;
+        minX = new float[chunkCount];
+        minY = new float[chunkCount];
+        minZ = new float[chunkCount];
+        maxX = new float[chunkCount];
+        maxY = new float[chunkCount];
+        maxZ = new float[chunkCount];
+        bounds = new ChunkBounds(Math.ceilDiv(chunkCount, ChunkBounds.BATCH_SIZE));
+        int i = 0;
+        for (int y = 0; y < chunksPerAxis; y++) {
+            for (int z = 0; z < chunksPerAxis; z++) {
+                for (int x = 0; x < chunksPerAxis; x++) {
+                    minX[i] = x * Chunk.SIZE;
+                    minY[i] = y * Chunk.SIZE;
+                    minZ[i] = z * Chunk.SIZE;
+                    maxX[i] = minX[i] + Chunk.SIZE;
+                    maxY[i] = minY[i] + Chunk.SIZE;
+                    maxZ[i] = minZ[i] + Chunk.SIZE;
+                    bounds.set(i, minX[i], minY[i], minZ[i], maxX[i], maxY[i], maxZ[i]);
+                    i++;
+                }
+            }
+        }
+        final float center = chunksPerAxis * Chunk.SIZE * 0.5f;
+        final Matrix4f matrix = new Matrix4f()
+            .setPerspective((float) Math.toRadians(90.0), 16f / 9f, 0.05f, 1000.0f)
+            .rotateX((float) Math.toRadians(30.0))
+            .rotateY((float) Math.toRadians(45.0))
+            .translate(-center, -center, -center);
+        frustum.set(matrix);
+        final Vector4f plane = new Vector4f();
+        for (int p = 0; p < 6; p++) {
+            matrix.frustumPlane(p, plane);
+            planes[p * 4] = plane.x();
+            planes[p * 4 + 1] = plane.y();
+            planes[p * 4 + 2] = plane.z();
+            planes[p * 4 + 3] = plane.w();
+        }
+    }
+
+    @Benchmark
+    public void joml(Blackhole blackhole) {
+        long result = 0L;
+        for (int i = 0; i < chunkCount; i++) {
+            if (frustum.testAab(minX[i], minY[i], minZ[i], maxX[i], maxY[i], maxZ[i])) {
+                result |= 1L << i;
+            }
+            // produce the same bit sets as the vector version
+            if ((i & 63) == 63) {
+                blackhole.consume(result);
+                result = 0L;
+            }
+        }
+    }
+
+    @Benchmark
+    public void vector(Blackhole blackhole) {
+        for (int batch = 0, count = Math.ceilDiv(chunkCount, ChunkBounds.BATCH_SIZE); batch < count; batch++) {
+            blackhole.consume(bounds.testFrustum(batch, planes));
+        }
+    }
+}
@@ -222,14 +222,14 @@ public final class CuboidX implements Runnable {
                 case GLFW.MOUSE_BUTTON_LEFT -> {
                     final HitResult result = worldRenderer().hitResult();
                     if (result != null && !result.missed()) {
-                        world().setBlock(result.x(), result.y(), result.z(), BlockTypes.AIR);
+                        world().setBlock(result.x(), result.y(), result.z(), BlockTypes.AIR, true);
                     }
                 }
                 case GLFW.MOUSE_BUTTON_RIGHT -> {
                     final HitResult result = worldRenderer().hitResult();
                     if (result != null && !result.missed()) {
                         final Direction side = result.side();
-                        world().setBlock(result.x() + side.axisX(), result.y() + side.axisY(), result.z() + side.axisZ(), player().mainHandItem());
+                        world().setBlock(result.x() + side.axisX(), result.y() + side.axisY(), result.z() + side.axisZ(), player().mainHandItem(), true);
                     }
                 }
             }
@@ -0,0 +1,388 @@
+/*
+ * cuboidx - A 3D sandbox game
+ * Copyright (C) 2023  XenFork Union
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package cuboidx.client.gl;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import overrungl.opengl.GL;
+
+import java.lang.foreign.MemorySegment;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * A large buffer that is suballocated in elements of a fixed size.
+ * <p>
+ * The free ranges are kept in size-class free lists, a class for each power of two,
+ * and adjacent free ranges are coalesced.
+ * If no free range fits, the buffer grows by doubling into a new buffer, and the data is copied into it;
+ * the {@link #id() buffer name} changes, so the vertex arrays referring to the buffer must bind the new one.
+ * <p>
+ * A freed range is reused only once the GPU has passed the fence of the {@link #nextFrame() frame} it was freed in,
+ * so that the draws still reading it are not overwritten.
+ * {@link #compact(long) Compaction} moves the allocations at the end of the buffer to the free ranges before them
+ * with {@code glCopyBufferSubData}, and updates their {@link Allocation#offset() offsets}.
+ * An allocation with no fitting free range before it is skipped,
+ * and compaction is not tried again until the reusable free ranges change.
+ * <p>
+ * All methods must be called from the render thread.
+ *
+ * @author squid233
+ * @since 0.1.0
+ */
+public final class GLBufferArena implements AutoCloseable {
+    private static final Logger logger = LogManager.getLogger();
+    private static final int CLASS_COUNT = Long.SIZE;
+    private final String name;
+    private int id;
+    private final long elementSize;
+    // offset -> count
+    private final TreeMap<Long, Long> freeRanges = new TreeMap<>();
+    private final List<TreeSet<Long>> sizeClasses = new ArrayList<>(CLASS_COUNT);
+    private final TreeMap<Long, Allocation> allocations = new TreeMap<>();
+    // count -> the count of the free ranges of the count
+    private final TreeMap<Long, Integer> freeRangeCounts = new TreeMap<>();
+    private final Queue<PendingFree> pendingFrees = new ArrayDeque<>();
+    private final Queue<FrameFence> frameFences = new ArrayDeque<>();
+    private long capacity;
+    private long freeCount = 0;
+    private long usedCount = 0;
+    private long frame = 0;
+    // increased when the freed ranges become reusable, so that a stalled compaction is not tried again in vain
+    private long freeVersion = 0;
+    private long stalledFreeVersion = -1;
+
+    /**
+     * Creates a buffer arena.
+     *
+     * @param name            the name for logging
+     * @param elementSize     the size in bytes of an element
+     * @param initialCapacity the initial count of elements
+     */
+    public GLBufferArena(String name, long elementSize, long initialCapacity) {
+        this.name = name;
+        this.elementSize = elementSize;
+        this.capacity = initialCapacity;
+        for (int i = 0; i < CLASS_COUNT; i++) {
+            sizeClasses.add(new TreeSet<>());
+        }
+        this.id = GL.genBuffer();
+        GL.bindBuffer(GL.COPY_WRITE_BUFFER, id);
+        GL.bufferData(GL.COPY_WRITE_BUFFER, elementSize * initialCapacity, GL.DYNAMIC_DRAW);
+        GL.bindBuffer(GL.COPY_WRITE_BUFFER, 0);
+        addFreeRange(0L, initialCapacity);
+    }
+
+    /**
+     * An allocated range. The offset may be changed by compaction.
+     *
+     * @author squid233
+     * @since 0.1.0
+     */
+    public static final class Allocation {
+        private final long count;
+        private long offset;
+        private boolean freed = false;
+
+        private Allocation(long offset, long count) {
+            this.offset = offset;
+            this.count = count;
+        }
+
+        /**
+         * {@return the offset in elements}
+         */
+        public long offset() {
+            return offset;
+        }
+
+        /**
+         * {@return the count of elements}
+         */
+        public long count() {
+            return count;
+        }
+    }
+
+    private record PendingFree(long offset, long count, long frame) {
+    }
+
+    private record FrameFence(long frame, MemorySegment sync) {
+    }
+
+    private static int sizeClass(long count) {
+        return 63 - Long.numberOfLeadingZeros(count);
+    }
+
+    private void addFreeRange(long offset, long count) {
+        long start = offset;
+        long size = count;
+        final Map.Entry<Long, Long> previous = freeRanges.floorEntry(offset);
+        if (previous != null && previous.getKey() + previous.getValue() == offset) {
+            removeFreeRange(previous.getKey());
+            start = previous.getKey();
+            size += previous.getValue();
+        }
+        final Long next = freeRanges.get(offset + count);
+        if (next != null) {
+            removeFreeRange(offset + count);
+            size += next;
+        }
+        freeRanges.put(start, size);
+        sizeClasses.get(sizeClass(size)).add(start);
+        freeRangeCounts.merge(size, 1, Integer::sum);
+        freeCount += size;
+    }
+
+    private long removeFreeRange(long offset) {
+        final long size = freeRanges.remove(offset);
+        sizeClasses.get(sizeClass(size)).remove(offset);
+        freeRangeCounts.computeIfPresent(size, (key, count) -> count > 1 ? count - 1 : null);
+        freeCount -= size;
+        return size;
+    }
+
+    private long findFreeRange(long count) {
+        final int first = sizeClass(count);
+        // the ranges in the class of the count may be smaller than the count
+        for (long offset : sizeClasses.get(first)) {
+            if (freeRanges.get(offset) >= count) return offset;
+        }
+        for (int i = first + 1; i < CLASS_COUNT; i++) {
+            final TreeSet<Long> sizeClass = sizeClasses.get(i);
+            if (!sizeClass.isEmpty()) return sizeClass.first();
+        }
+        return -1;
+    }
+
+    private void take(long offset, long count) {
+        final long size = removeFreeRange(offset);
+        if (size > count) {
+            addFreeRange(offset + count, size - count);
+        }
+    }
+
+    /**
+     * Allocates a range of elements.
+     *
+     * @param count the count of elements; must be positive
+     * @return the allocation
+     */
+    public Allocation allocate(long count) {
+        long offset = findFreeRange(count);
+        if (offset < 0) {
+            grow(count);
+            offset = findFreeRange(count);
+        }
+        take(offset, count);
+        final Allocation allocation = new Allocation(offset, count);
+        allocations.put(offset, allocation);
+        usedCount += count;
+        return allocation;
+    }
+
+    /**
+     * Frees an allocation. The range is reused once the GPU has finished the current frame.
+     *
+     * @param allocation the allocation; {@code null} is ignored
+     */
+    public void free(Allocation allocation) {
+        if (allocation == null || allocation.freed) return;
+        allocation.freed = true;
+        allocations.remove(allocation.offset);
+        usedCount -= allocation.count;
+        deferFree(allocation.offset, allocation.count);
+    }
+
+    private void deferFree(long offset, long count) {
+        pendingFrees.offer(new PendingFree(offset, count, frame));
+    }
+
+    /**
+     * Advances a frame, and makes the ranges freed in the frames that the GPU has finished reusable.
+     * The commands issued before this call are fenced as the end of the current frame.
+     */
+    public void nextFrame() {
+        frameFences.offer(new FrameFence(frame, GL.fenceSync(GL.SYNC_GPU_COMMANDS_COMPLETE, 0)));
+        frame++;
+        long finishedFrame = -1;
+        FrameFence fence;
+        while ((fence = frameFences.peek()) != null) {
+            final int status = GL.clientWaitSync(fence.sync(), 0, 0L);
+            if (status != GL.ALREADY_SIGNALED && status != GL.CONDITION_SATISFIED) {
+                // fences are signaled in order
+                break;
+            }
+            GL.deleteSync(fence.sync());
+            frameFences.poll();
+            finishedFrame = fence.frame();
+        }
+        PendingFree pending;
+        while ((pending = pendingFrees.peek()) != null && pending.frame() <= finishedFrame) {
+            pendingFrees.poll();
+            addFreeRange(pending.offset(), pending.count());
+            freeVersion++;
+        }
+    }
+
+    /**
+     * Moves the allocations at the end of the buffer to the first free ranges before them that fit.
+     * The allocations that fit nowhere before them are skipped.
+     *
+     * @param maxBytes the maximum size in bytes to move
+     * @return the size in bytes moved
+     */
+    public long compact(long maxBytes) {
+        // nothing has been freed since the last compaction that could not move anything
+        if (freeVersion == stalledFreeVersion) return 0;
+        long moved = 0;
+        boolean bound = false;
+        Map.Entry<Long, Allocation> entry = allocations.lastEntry();
+        while (moved < maxBytes && entry != null && !freeRanges.isEmpty()) {
+            final Allocation allocation = entry.getValue();
+            // no free range before the allocations from here on
+            if (freeRanges.firstKey() > allocation.offset) break;
+            final long target = findFreeRangeBefore(allocation.offset, allocation.count);
+            entry = allocations.lowerEntry(allocation.offset);
+            if (target < 0) continue;
+            if (!bound) {
+                GL.bindBuffer(GL.COPY_READ_BUFFER, id);
+                GL.bindBuffer(GL.COPY_WRITE_BUFFER, id);
+                bound = true;
+            }
+            take(target, allocation.count);
+            // the ranges do not overlap, since the target is a free range
+            GL.copyBufferSubData(GL.COPY_READ_BUFFER, GL.COPY_WRITE_BUFFER,
+                elementSize * allocation.offset,
+                elementSize * target,
+                elementSize * allocation.count);
+            allocations.remove(allocation.offset);
+            deferFree(allocation.offset, allocation.count);
+            allocation.offset = target;
+            allocations.put(target, allocation);
+            moved += elementSize * allocation.count;
+        }
+        if (bound) {
+            GL.bindBuffer(GL.COPY_READ_BUFFER, 0);
+            GL.bindBuffer(GL.COPY_WRITE_BUFFER, 0);
+        }
+        if (moved == 0) stalledFreeVersion = freeVersion;
+        return moved;
+    }
+
+    private long findFreeRangeBefore(long offset, long count) {
+        for (Map.Entry<Long, Long> range : freeRanges.headMap(offset).entrySet()) {
+            if (range.getValue() >= count) return range.getKey();
+        }
+        return -1;
+    }
+
+    private void grow(long count) {
+        final long oldCapacity = capacity;
+        long newCapacity = Math.max(oldCapacity, 1);
+        // the free range at the end is extended by the growth
+        final Map.Entry<Long, Long> last = freeRanges.lastEntry();
+        final long tailFree = last != null && last.getKey() + last.getValue() == oldCapacity ? last.getValue() : 0;
+        while (newCapacity - oldCapacity + tailFree < count) {
+            newCapacity <<= 1;
+        }
+
+        // the old buffer is deleted once the draws still reading it are finished
+        final int newId = GL.genBuffer();
+        GL.bindBuffer(GL.COPY_READ_BUFFER, id);
+        GL.bindBuffer(GL.COPY_WRITE_BUFFER, newId);
+        GL.bufferData(GL.COPY_WRITE_BUFFER, elementSize * newCapacity, GL.DYNAMIC_DRAW);
+        GL.copyBufferSubData(GL.COPY_READ_BUFFER, GL.COPY_WRITE_BUFFER, 0, 0, elementSize * oldCapacity);
+        GL.bindBuffer(GL.COPY_READ_BUFFER, 0);
+        GL.bindBuffer(GL.COPY_WRITE_BUFFER, 0);
+        GL.deleteBuffer(id);
+        id = newId;
+
+        capacity = newCapacity;
+        addFreeRange(oldCapacity, newCapacity - oldCapacity);
+        freeVersion++;
+        logger.info("Grew buffer arena {} to {} bytes", name, elementSize * newCapacity);
+    }
+
+    /**
+     * {@return the fragmentation of the reusable free ranges}
+     * {@code 0} if all of them are in one range, and close to {@code 1} if they are scattered.
+     */
+    public double fragmentation() {
+        return freeCount == 0 ? 0.0 : 1.0 - (double) freeRangeCounts.lastKey() / freeCount;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    /**
+     * {@return the buffer name} It changes when the buffer grows.
+     */
+    public int id() {
+        return id;
+    }
+
+    public long elementSize() {
+        return elementSize;
+    }
+
+    /**
+     * {@return the count of the allocated elements}
+     */
+    public long usedCount() {
+        return usedCount;
+    }
+
+    /**
+     * {@return the count of the reusable free elements}
+     * The elements freed in the frames that the GPU has not finished are neither used nor free.
+     */
+    public long freeCount() {
+        return freeCount;
+    }
+
+    /**
+     * {@return the count of elements of the buffer}
+     */
+    public long capacity() {
+        return capacity;
+    }
+
+    @Override
+    public void close() {
+        freeRanges.clear();
+        sizeClasses.forEach(TreeSet::clear);
+        freeRangeCounts.clear();
+        for (FrameFence fence : frameFences) {
+            GL.deleteSync(fence.sync());
+        }
+        frameFences.clear();
+        allocations.clear();
+        pendingFrees.clear();
+        freeCount = 0;
+        usedCount = 0;
+        GL.deleteBuffer(id);
+    }
+}
@@ -29,20 +29,38 @@ import org.apache.logging.log4j.Logger;
 import overrungl.opengl.GL;
 
 import java.lang.foreign.Arena;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 
 /**
+ * A shader program.
+ * <p>
+ * The uniforms are held in a dense array with a bit per uniform marking it dirty,
+ * so {@link #specifyUniforms()} only uploads the uniforms changed since the last call.
+ * The projection and view matrices are not uniforms of the program, but are in the shared
+ * {@value RenderSystem#CAMERA_BLOCK} uniform block, which is bound to {@link RenderSystem#CAMERA_BINDING}.
+ *
  * @author squid233
  * @since 0.1.0
  */
 public final class GLProgram implements AutoCloseable {
     private static final Logger logger = LogManager.getLogger();
+    /**
+     * The maximum count of the uniforms of a program.
+     */
+    public static final int MAX_UNIFORMS = Long.SIZE;
     private final ResourceLocation location;
     private final int id;
     private final Arena uniformArena = Arena.ofConfined();
     private final Map<String, GLUniform> uniformMap = new HashMap<>();
+    private final List<GLUniform> uniforms = new ArrayList<>();
+    private long dirtyUniforms = 0L;
+    private GLUniform modelMatrix;
+    private GLUniform colorModulator;
+    private GLUniform sampler0;
 
     private GLProgram(ResourceLocation location) {
         this.location = location;
@@ -50,6 +68,18 @@ public final class GLProgram implements AutoCloseable {
     }
 
     public static GLProgram load(ResourceLocation location, VertexLayout layout) {
+        return load(location, layout, null);
+    }
+
+    /**
+     * Loads a program, from the binary in the given cache if it has one for the sources.
+     *
+     * @param location the location of the program
+     * @param layout   the vertex layout
+     * @param cache    the program cache, or {@code null} to always compile
+     * @return the program, or {@code null} if it failed to load
+     */
+    public static GLProgram load(ResourceLocation location, VertexLayout layout, GLProgramCache cache) {
         try {
             final GLProgram program = new GLProgram(location);
 
@@ -57,33 +87,33 @@ public final class GLProgram implements AutoCloseable {
                 STR. "\{ location.toPath(ResourceLocation.ASSETS, ResourceLocation.SHADER) }.json" ))
             ).getAsJsonObject();
 
-            final int vsh = compileShader(GL.VERTEX_SHADER, "vertex",
-                FileUtil.readString(STR. "\{ ResourceLocation.of(json.get("vertex").getAsString())
-                    .toPath(ResourceLocation.ASSETS, ResourceLocation.SHADER) }.vert" ));
-            if (vsh < 0) return null;
-            final int fsh = compileShader(GL.FRAGMENT_SHADER, "fragment",
-                FileUtil.readString(STR. "\{ ResourceLocation.of(json.get("fragment").getAsString())
-                    .toPath(ResourceLocation.ASSETS, ResourceLocation.SHADER) }.frag" ));
-            if (fsh < 0) return null;
-
-            GL.attachShader(program.id(), vsh);
-            GL.attachShader(program.id(), fsh);
-            layout.bindLocations(program.id());
-            GL.linkProgram(program.id());
-            final boolean failed = GL.getProgrami(program.id(), GL.LINK_STATUS) == GL.FALSE;
-            if (failed) {
-                logger.error("Failed to link the program: {}", GL.getProgramInfoLog(program.id));
+            final String vertexSource = FileUtil.readString(STR. "\{ ResourceLocation.of(json.get("vertex").getAsString())
+                .toPath(ResourceLocation.ASSETS, ResourceLocation.SHADER) }.vert" );
+            final String fragmentSource = FileUtil.readString(STR. "\{ ResourceLocation.of(json.get("fragment").getAsString())
+                .toPath(ResourceLocation.ASSETS, ResourceLocation.SHADER) }.frag" );
+            final byte[] key = cache != null && cache.supported() && vertexSource != null && fragmentSource != null ?
+                cache.computeKey(vertexSource, fragmentSource, layout) :
+                null;
+
+            if (key == null || !cache.load(location, key, program.id())) {
+                if (!program.compileAndLink(layout, vertexSource, fragmentSource, key != null ? cache : null)) {
+                    return null;
+                }
+                if (key != null) cache.store(location, key, program.id());
+            }
+
+            final int cameraBlock = GL.getUniformBlockIndex(program.id(), RenderSystem.CAMERA_BLOCK);
+            if (cameraBlock != GL.INVALID_INDEX) {
+                GL.uniformBlockBinding(program.id(), cameraBlock, RenderSystem.CAMERA_BINDING);
             }
-            GL.detachShader(program.id(), vsh);
-            GL.detachShader(program.id(), fsh);
-            GL.deleteShader(vsh);
-            GL.deleteShader(fsh);
-            if (failed) return null;
 
             final JsonObject uniforms = json.getAsJsonObject("uniforms");
             for (var e : uniforms.entrySet()) {
                 program.initUniform(e.getValue().getAsJsonObject(), e.getKey());
             }
+            program.modelMatrix = program.uniform("ModelMatrix");
+            program.colorModulator = program.uniform("ColorModulator");
+            program.sampler0 = program.uniform("Sampler0");
 
             return program;
         } catch (Exception e) {
@@ -92,6 +122,28 @@ public final class GLProgram implements AutoCloseable {
         }
     }
 
+    private boolean compileAndLink(VertexLayout layout, String vertexSource, String fragmentSource, GLProgramCache cache) {
+        final int vsh = compileShader(GL.VERTEX_SHADER, "vertex", vertexSource);
+        if (vsh < 0) return false;
+        final int fsh = compileShader(GL.FRAGMENT_SHADER, "fragment", fragmentSource);
+        if (fsh < 0) return false;
+
+        GL.attachShader(id, vsh);
+        GL.attachShader(id, fsh);
+        layout.bindLocations(id);
+        if (cache != null) cache.prepareLink(id);
+        GL.linkProgram(id);
+        final boolean failed = GL.getProgrami(id, GL.LINK_STATUS) == GL.FALSE;
+        if (failed) {
+            logger.error("Failed to link the program: {}", GL.getProgramInfoLog(id));
+        }
+        GL.detachShader(id, vsh);
+        GL.detachShader(id, fsh);
+        GL.deleteShader(vsh);
+        GL.deleteShader(fsh);
+        return !failed;
+    }
+
     private static int compileShader(int type, String typeName, String src) {
         final int shader = GL.createShader(type);
         GL.shaderSource(shader, src);
@@ -139,9 +191,15 @@ public final class GLProgram implements AutoCloseable {
     private GLUniform createUniform(String name, GLUniform.Type type) {
         final int location = GL.getUniformLocation(id, name);
         if (location == -1) return null;
+        if (uniforms.size() >= MAX_UNIFORMS) {
+            throw new IllegalStateException(STR."Too many uniforms in program \{this.location}");
+        }
 
-        final GLUniform uniform = new GLUniform(this, location, type);
+        final GLUniform uniform = new GLUniform(this, uniforms.size(), location, type);
+        uniforms.add(uniform);
         uniformMap.put(name, uniform);
+        // upload the initial value
+        markUniformDirty(uniform.index());
         return uniform;
     }
 
@@ -149,24 +207,34 @@ public final class GLProgram implements AutoCloseable {
         return uniformMap.get(name);
     }
 
-    public GLUniform projectionMatrix() {
-        return uniform("ProjectionMatrix");
-    }
-
-    public GLUniform modelViewMatrix() {
-        return uniform("ModelViewMatrix");
+    public GLUniform modelMatrix() {
+        return modelMatrix;
     }
 
     public GLUniform colorModulator() {
-        return uniform("ColorModulator");
+        return colorModulator;
     }
 
     public GLUniform sampler0() {
-        return uniform("Sampler0");
+        return sampler0;
+    }
+
+    void markUniformDirty(int index) {
+        dirtyUniforms |= 1L << index;
     }
 
+    /**
+     * Uploads the uniforms changed since the last call.
+     */
     public void specifyUniforms() {
-        uniformMap.values().forEach(GLUniform::specify);
+        long dirty = dirtyUniforms;
+        if (dirty == 0L) return;
+        dirtyUniforms = 0L;
+        GLStateMgr.flushPendingDraws();
+        while (dirty != 0L) {
+            uniforms.get(Long.numberOfTrailingZeros(dirty)).specify();
+            dirty &= dirty - 1;
+        }
     }
 
     public ResourceLocation location() {
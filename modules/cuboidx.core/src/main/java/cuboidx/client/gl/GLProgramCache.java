@@ -0,0 +1,181 @@
+/*
+ * cuboidx - A 3D sandbox game
+ * Copyright (C) 2023  XenFork Union
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package cuboidx.client.gl;
+
+import cuboidx.client.render.VertexFormat;
+import cuboidx.client.render.VertexLayout;
+import cuboidx.util.FileUtil;
+import cuboidx.util.ResourceLocation;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import overrungl.opengl.GL;
+import overrungl.opengl.GLLoader;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * The program cache stores linked program binaries on disk, so that the next launch skips compiling and linking.
+ * <p>
+ * A binary is keyed by a SHA-256 hash of the shader sources, the attribute locations,
+ * and the vendor, the renderer and the version of the driver, so a driver update invalidates it.
+ * The driver may still reject a binary, in which case the program is compiled from the sources and the binary is replaced.
+ * The cache does nothing if {@code ARB_get_program_binary} is not supported.
+ * All methods must be called from the render thread.
+ *
+ * @author squid233
+ * @since 0.1.0
+ */
+public final class GLProgramCache {
+    private static final Logger logger = LogManager.getLogger();
+    private static final int MAGIC = 0x43585042; // CXPB
+    private static final int VERSION = 1;
+    private static final int KEY_SIZE = 32;
+    private static final int HEADER_SIZE = 8 + KEY_SIZE + 8;
+    private final Path directory;
+    private final boolean supported;
+    private final String driver;
+
+    /**
+     * Creates the cache.
+     *
+     * @param directory the directory of the cache files
+     */
+    public GLProgramCache(Path directory) {
+        this.directory = directory;
+        this.supported = GLLoader.getExtCapabilities().GL_ARB_get_program_binary;
+        this.driver = STR."\{GL.getString(GL.VENDOR)}\n\{GL.getString(GL.RENDERER)}\n\{GL.getString(GL.VERSION)}";
+    }
+
+    public boolean supported() {
+        return supported;
+    }
+
+    /**
+     * Computes the key of a program.
+     *
+     * @param vertexSource   the source of the vertex shader
+     * @param fragmentSource the source of the fragment shader
+     * @param layout         the vertex layout whose attribute locations are bound
+     * @return the key
+     */
+    public byte[] computeKey(String vertexSource, String fragmentSource, VertexLayout layout) {
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(STR."\{VERSION}\n\{driver}\n".getBytes(StandardCharsets.UTF_8));
+            for (VertexFormat format : layout.formats()) {
+                if (format.isPadding()) continue;
+                digest.update(STR."\{format.id()}=\{format.name()}\n".getBytes(StandardCharsets.UTF_8));
+            }
+            digest.update(vertexSource.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(fragmentSource.getBytes(StandardCharsets.UTF_8));
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Loads the cached binary into the given program.
+     *
+     * @param location the location of the program
+     * @param key      the key of the program
+     * @param program  the program
+     * @return {@code true} if the program is linked from the binary;
+     * {@code false} if there is no binary for the key, or the driver rejected it
+     */
+    public boolean load(ResourceLocation location, byte[] key, int program) {
+        if (!supported) return false;
+        final Path file = FileUtil.cacheFileOf(directory, location);
+        if (!Files.isRegularFile(file)) return false;
+        try (Arena arena = Arena.ofConfined()) {
+            final byte[] bytes = Files.readAllBytes(file);
+            final ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.nativeOrder());
+            if (bytes.length < HEADER_SIZE || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) return false;
+            final byte[] fileKey = new byte[KEY_SIZE];
+            buffer.get(fileKey);
+            if (!Arrays.equals(fileKey, key)) return false;
+            final int format = buffer.getInt();
+            final int length = buffer.getInt();
+            if (length <= 0 || length > buffer.remaining()) return false;
+            final MemorySegment binary = arena.allocate(length);
+            MemorySegment.copy(bytes, buffer.position(), binary, ValueLayout.JAVA_BYTE, 0, length);
+            GL.programBinary(program, format, binary, length);
+            if (GL.getProgrami(program, GL.LINK_STATUS) == GL.FALSE) {
+                logger.info("The driver rejected the cached binary of {}; compiling", location);
+                return false;
+            }
+            return true;
+        } catch (IOException e) {
+            logger.warn("Couldn't read the cached binary of {}", location, e);
+            return false;
+        }
+    }
+
+    /**
+     * Hints the driver to keep the binary of the program. Must be called before linking.
+     *
+     * @param program the program
+     */
+    public void prepareLink(int program) {
+        if (supported) {
+            GL.programParameteri(program, GL.PROGRAM_BINARY_RETRIEVABLE_HINT, GL.TRUE);
+        }
+    }
+
+    /**
+     * Writes the binary of the linked program to the cache.
+     *
+     * @param location the location of the program
+     * @param key      the key of the program
+     * @param program  the linked program
+     */
+    public void store(ResourceLocation location, byte[] key, int program) {
+        if (!supported) return;
+        final int length = GL.getProgrami(program, GL.PROGRAM_BINARY_LENGTH);
+        if (length <= 0) return;
+        try (Arena arena = Arena.ofConfined()) {
+            final MemorySegment pLength = arena.allocate(ValueLayout.JAVA_INT);
+            final MemorySegment pFormat = arena.allocate(ValueLayout.JAVA_INT);
+            final MemorySegment binary = arena.allocate(length);
+            GL.getProgramBinary(program, length, pLength, pFormat, binary);
+            final int written = pLength.get(ValueLayout.JAVA_INT, 0);
+            final ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + written).order(ByteOrder.nativeOrder());
+            buffer.putInt(MAGIC).putInt(VERSION).put(key)
+                .putInt(pFormat.get(ValueLayout.JAVA_INT, 0))
+                .putInt(written)
+                .put(binary.asSlice(0, written).asByteBuffer());
+            buffer.flip();
+            FileUtil.writeAtomically(FileUtil.cacheFileOf(directory, location), "program",
+                channel -> FileUtil.writeFully(channel, buffer));
+        } catch (IOException e) {
+            logger.warn("Couldn't write the binary of {} to the cache", location, e);
+        }
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * cuboidx - A 3D sandbox game
+ * Copyright (C) 2023  XenFork Union
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package cuboidx.client.gl;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import overrungl.opengl.GL;
+import overrungl.opengl.GLLoader;
+
+import java.lang.foreign.MemorySegment;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A persistently and coherently mapped buffer, split into a ring of fixed-size staging regions.
+ * <p>
+ * Any thread can {@link #acquire() acquire} a free region and write into its mapped memory.
+ * The render thread then {@link #copy(Region, long, int, long, long) copies} the region into the destination buffer
+ * and {@link #fence(Region) fences} it.
+ * A fenced region becomes free again once the GPU has passed its fence, which is checked by {@link #poll()}.
+ * <p>
+ * This requires {@code ARB_buffer_storage}; check {@link #isSupported()} before creating it.
+ *
+ * @author squid233
+ * @since 0.1.0
+ */
+public final class GLStagingBuffer implements AutoCloseable {
+    private static final Logger logger = LogManager.getLogger();
+    private static final int FLAGS = GL.MAP_WRITE_BIT | GL.MAP_PERSISTENT_BIT | GL.MAP_COHERENT_BIT;
+    private final int id;
+    private final long regionSize;
+    private final int regionCount;
+    private final MemorySegment mapped;
+    private final Queue<Region> freeRegions = new ConcurrentLinkedQueue<>();
+    private final Queue<Region> fencedRegions = new ArrayDeque<>();
+
+    private GLStagingBuffer(int id, long regionSize, int regionCount, MemorySegment mapped) {
+        this.id = id;
+        this.regionSize = regionSize;
+        this.regionCount = regionCount;
+        this.mapped = mapped;
+        for (int i = 0; i < regionCount; i++) {
+            freeRegions.add(new Region(i * regionSize, mapped.asSlice(i * regionSize, regionSize)));
+        }
+    }
+
+    /**
+     * A staging region.
+     *
+     * @author squid233
+     * @since 0.1.0
+     */
+    public static final class Region {
+        private final long offset;
+        private final MemorySegment segment;
+        private MemorySegment sync = MemorySegment.NULL;
+
+        private Region(long offset, MemorySegment segment) {
+            this.offset = offset;
+            this.segment = segment;
+        }
+
+        /**
+         * {@return the mapped memory of this region}
+         */
+        public MemorySegment segment() {
+            return segment;
+        }
+    }
+
+    public static boolean isSupported() {
+        return GLLoader.getExtCapabilities().GL_ARB_buffer_storage;
+    }
+
+    /**
+     * Creates a staging buffer. Must be called from the render thread.
+     *
+     * @param regionSize  the size in bytes of each region
+     * @param regionCount the count of the regions
+     * @return the staging buffer
+     */
+    public static GLStagingBuffer create(long regionSize, int regionCount) {
+        final long size = regionSize * regionCount;
+        final int id = GL.genBuffer();
+        GL.bindBuffer(GL.COPY_READ_BUFFER, id);
+        GL.bufferStorage(GL.COPY_READ_BUFFER, size, MemorySegment.NULL, FLAGS);
+        final MemorySegment mapped = GL.mapBufferRange(GL.COPY_READ_BUFFER, 0, size, FLAGS).reinterpret(size);
+        GL.bindBuffer(GL.COPY_READ_BUFFER, 0);
+        logger.info("Created {} staging regions of {} bytes", regionCount, regionSize);
+        return new GLStagingBuffer(id, regionSize, regionCount, mapped);
+    }
+
+    /**
+     * Acquires a free region. This method can be called from any thread.
+     *
+     * @return the region, or {@code null} if all regions are in use
+     */
+    public Region acquire() {
+        return freeRegions.poll();
+    }
+
+    /**
+     * Releases a region that has never been copied. This method can be called from any thread.
+     *
+     * @param region the region
+     */
+    public void release(Region region) {
+        freeRegions.offer(region);
+    }
+
+    /**
+     * Copies a range of the region into the buffer bound to the given target. Must be called from the render thread.
+     *
+     * @param region      the source region
+     * @param offset      the offset in the region
+     * @param writeTarget the target the destination buffer is bound to
+     * @param writeOffset the offset in the destination buffer
+     * @param size        the size in bytes
+     */
+    public void copy(Region region, long offset, int writeTarget, long writeOffset, long size) {
+        GL.bindBuffer(GL.COPY_READ_BUFFER, id);
+        GL.copyBufferSubData(GL.COPY_READ_BUFFER, writeTarget, region.offset + offset, writeOffset, size);
+        GL.bindBuffer(GL.COPY_READ_BUFFER, 0);
+    }
+
+    /**
+     * Inserts a fence after the copies of the region. Must be called from the render thread.
+     *
+     * @param region the region
+     */
+    public void fence(Region region) {
+        region.sync = GL.fenceSync(GL.SYNC_GPU_COMMANDS_COMPLETE, 0);
+        fencedRegions.offer(region);
+    }
+
+    /**
+     * Frees the regions whose fences have been passed. Must be called from the render thread.
+     */
+    public void poll() {
+        Region region;
+        while ((region = fencedRegions.peek()) != null) {
+            final int status = GL.clientWaitSync(region.sync, 0, 0L);
+            if (status != GL.ALREADY_SIGNALED && status != GL.CONDITION_SATISFIED) {
+                // fences are signaled in order
+                break;
+            }
+            GL.deleteSync(region.sync);
+            region.sync = MemorySegment.NULL;
+            fencedRegions.poll();
+            freeRegions.offer(region);
+        }
+    }
+
+    public int id() {
+        return id;
+    }
+
+    public long regionSize() {
+        return regionSize;
+    }
+
+    public int regionCount() {
+        return regionCount;
+    }
+
+    public MemorySegment mapped() {
+        return mapped;
+    }
+
+    @Override
+    public void close() {
+        for (Region region : fencedRegions) {
+            GL.deleteSync(region.sync);
+        }
+        fencedRegions.clear();
+        freeRegions.clear();
+        GL.bindBuffer(GL.COPY_READ_BUFFER, id);
+        GL.unmapBuffer(GL.COPY_READ_BUFFER);
+        GL.bindBuffer(GL.COPY_READ_BUFFER, 0);
+        GL.deleteBuffer(id);
+    }
+}
@@ -21,6 +21,11 @@ package cuboidx.client.gl;
 import overrungl.opengl.GL;
 
 /**
+ * Tracks the GL state to skip the redundant state changes.
+ * <p>
+ * Before any state change, the {@link #setPendingDrawFlusher(Runnable) pending draw} is flushed,
+ * so that the batched draws are drawn with the state they were recorded with.
+ *
  * @author squid233
  * @since 0.1.0
  */
@@ -29,6 +34,7 @@ public final class GLStateMgr {
     private static int vertexArrayBinding = 0;
     private static int arrayBufferBinding = 0;
     private static int textureBinding2D = 0;
+    private static int textureBinding2DArray = 0;
     private static boolean depthTestEnabled = false;
     private static int depthFunc = GL.LESS;
     private static boolean cullFaceEnabled = false;
@@ -38,9 +44,32 @@ public final class GLStateMgr {
     private static float polygonOffsetFactor = 0;
     private static float polygonOffsetUnits = 0;
     private static boolean polygonOffsetLine = false;
+    private static boolean blendEnabled = false;
+    private static int blendSrcFactor = GL.ONE;
+    private static int blendDstFactor = GL.ZERO;
+    private static boolean depthMask = true;
+    private static Runnable pendingDrawFlusher = null;
+
+    /**
+     * Sets the action that draws the pending batched draws.
+     *
+     * @param flusher the action, or {@code null} to remove it
+     */
+    public static void setPendingDrawFlusher(Runnable flusher) {
+        pendingDrawFlusher = flusher;
+    }
+
+    /**
+     * Draws the pending batched draws. This must be called before changing the state or the framebuffer directly with GL.
+     */
+    public static void flushPendingDraws() {
+        final Runnable flusher = pendingDrawFlusher;
+        if (flusher != null) flusher.run();
+    }
 
     public static void useProgram(int program) {
         if (currentProgram != program) {
+            flushPendingDraws();
             currentProgram = program;
             GL.useProgram(program);
         }
@@ -52,6 +81,7 @@ public final class GLStateMgr {
 
     public static void bindVertexArray(int array) {
         if (vertexArrayBinding != array) {
+            flushPendingDraws();
             vertexArrayBinding = array;
             GL.bindVertexArray(array);
         }
@@ -70,6 +100,7 @@ public final class GLStateMgr {
 
     public static void bindArrayBuffer(int buffer) {
         if (arrayBufferBinding != buffer) {
+            flushPendingDraws();
             arrayBufferBinding = buffer;
             GL.bindBuffer(GL.ARRAY_BUFFER, buffer);
         }
@@ -88,6 +119,7 @@ public final class GLStateMgr {
 
     public static void bindTexture2D(int texture) {
         if (textureBinding2D != texture) {
+            flushPendingDraws();
             textureBinding2D = texture;
             GL.bindTexture(GL.TEXTURE_2D, texture);
         }
@@ -97,8 +129,21 @@ public final class GLStateMgr {
         return textureBinding2D;
     }
 
+    public static void bindTexture2DArray(int texture) {
+        if (textureBinding2DArray != texture) {
+            flushPendingDraws();
+            textureBinding2DArray = texture;
+            GL.bindTexture(GL.TEXTURE_2D_ARRAY, texture);
+        }
+    }
+
+    public static int textureBinding2DArray() {
+        return textureBinding2DArray;
+    }
+
     public static void enableDepthTest() {
         if (!depthTestEnabled) {
+            flushPendingDraws();
             depthTestEnabled = true;
             GL.enable(GL.DEPTH_TEST);
         }
@@ -106,6 +151,7 @@ public final class GLStateMgr {
 
     public static void disableDepthTest() {
         if (depthTestEnabled) {
+            flushPendingDraws();
             depthTestEnabled = false;
             GL.disable(GL.DEPTH_TEST);
         }
@@ -117,6 +163,7 @@ public final class GLStateMgr {
 
     public static void depthFunc(int func) {
         if (depthFunc != func) {
+            flushPendingDraws();
             depthFunc = func;
             GL.depthFunc(func);
         }
@@ -128,6 +175,7 @@ public final class GLStateMgr {
 
     public static void enableCullFace() {
         if (!cullFaceEnabled) {
+            flushPendingDraws();
             cullFaceEnabled = true;
             GL.enable(GL.CULL_FACE);
         }
@@ -135,6 +183,7 @@ public final class GLStateMgr {
 
     public static void disableCullFace() {
         if (cullFaceEnabled) {
+            flushPendingDraws();
             cullFaceEnabled = false;
             GL.disable(GL.CULL_FACE);
         }
@@ -146,6 +195,7 @@ public final class GLStateMgr {
 
     public static void cullFace(int mode) {
         if (cullFaceMode != mode) {
+            flushPendingDraws();
             cullFaceMode = mode;
             GL.cullFace(mode);
         }
@@ -157,6 +207,7 @@ public final class GLStateMgr {
 
     public static void lineWidth(float width) {
         if (Float.compare(lineWidth, width) != 0) {
+            flushPendingDraws();
             lineWidth = width;
             GL.lineWidth(width);
         }
@@ -168,6 +219,7 @@ public final class GLStateMgr {
 
     public static void enableLineSmooth() {
         if (!lineSmooth) {
+            flushPendingDraws();
             lineSmooth = true;
             GL.enable(GL.LINE_SMOOTH);
         }
@@ -175,6 +227,7 @@ public final class GLStateMgr {
 
     public static void disableLineSmooth() {
         if (lineSmooth) {
+            flushPendingDraws();
             lineSmooth = false;
             GL.disable(GL.LINE_SMOOTH);
         }
@@ -186,6 +239,7 @@ public final class GLStateMgr {
 
     public static void polygonOffset(float factor, float units) {
         if (Float.compare(polygonOffsetFactor, factor) != 0 || Float.compare(polygonOffsetUnits, units) != 0) {
+            flushPendingDraws();
             polygonOffsetFactor = factor;
             polygonOffsetUnits = units;
             GL.polygonOffset(factor, units);
@@ -202,6 +256,7 @@ public final class GLStateMgr {
 
     public static void enablePolygonOffsetLine() {
         if (!polygonOffsetLine) {
+            flushPendingDraws();
             polygonOffsetLine = true;
             GL.enable(GL.POLYGON_OFFSET_LINE);
         }
@@ -209,6 +264,7 @@ public final class GLStateMgr {
 
     public static void disablePolygonOffsetLine() {
         if (polygonOffsetLine) {
+            flushPendingDraws();
             polygonOffsetLine = false;
             GL.disable(GL.POLYGON_OFFSET_LINE);
         }
@@ -217,4 +273,53 @@ public final class GLStateMgr {
     public static boolean polygonOffsetLine() {
         return polygonOffsetLine;
     }
+
+    public static void enableBlend() {
+        if (!blendEnabled) {
+            flushPendingDraws();
+            blendEnabled = true;
+            GL.enable(GL.BLEND);
+        }
+    }
+
+    public static void disableBlend() {
+        if (blendEnabled) {
+            flushPendingDraws();
+            blendEnabled = false;
+            GL.disable(GL.BLEND);
+        }
+    }
+
+    public static boolean blendEnabled() {
+        return blendEnabled;
+    }
+
+    public static void blendFunc(int sfactor, int dfactor) {
+        if (blendSrcFactor != sfactor || blendDstFactor != dfactor) {
+            flushPendingDraws();
+            blendSrcFactor = sfactor;
+            blendDstFactor = dfactor;
+            GL.blendFunc(sfactor, dfactor);
+        }
+    }
+
+    public static int blendSrcFactor() {
+        return blendSrcFactor;
+    }
+
+    public static int blendDstFactor() {
+        return blendDstFactor;
+    }
+
+    public static void depthMask(boolean flag) {
+        if (depthMask != flag) {
+            flushPendingDraws();
+            depthMask = flag;
+            GL.depthMask(flag);
+        }
+    }
+
+    public static boolean depthMask() {
+        return depthMask;
+    }
 }
@@ -31,21 +31,29 @@ import java.lang.foreign.ValueLayout;
 import java.util.Locale;
 
 /**
+ * A uniform of a program.
+ * <p>
+ * Setting a uniform to the value it already holds does not mark it dirty,
+ * so the uniforms that are set every time a program is used are only uploaded when they change.
+ *
  * @author squid233
  * @since 0.1.0
  */
 public final class GLUniform {
     private final GLProgram program;
+    private final int index;
     private final int location;
     private final Type type;
     private final MemorySegment data;
-    private boolean dirty = true;
+    private final MemorySegment scratch;
 
-    public GLUniform(GLProgram program, int location, Type type) {
+    GLUniform(GLProgram program, int index, int location, Type type) {
         this.program = program;
+        this.index = index;
         this.location = location;
         this.type = type;
         this.data = program.uniformArena().allocate(type.layout());
+        this.scratch = program.uniformArena().allocate(type.layout());
     }
 
     /**
@@ -80,40 +88,47 @@ public final class GLUniform {
     }
 
     public void set(int x) {
-        markDirty();
-        data.set(ValueLayout.JAVA_INT, 0, x);
+        scratch.set(ValueLayout.JAVA_INT, 0, x);
+        commit();
     }
 
     public void set(float x, float y, float z, float w) {
-        markDirty();
-        data.set(ValueLayout.JAVA_FLOAT, 0, x);
-        data.set(ValueLayout.JAVA_FLOAT, 4, y);
-        data.set(ValueLayout.JAVA_FLOAT, 8, z);
-        data.set(ValueLayout.JAVA_FLOAT, 12, w);
+        scratch.set(ValueLayout.JAVA_FLOAT, 0, x);
+        scratch.set(ValueLayout.JAVA_FLOAT, 4, y);
+        scratch.set(ValueLayout.JAVA_FLOAT, 8, z);
+        scratch.set(ValueLayout.JAVA_FLOAT, 12, w);
+        commit();
     }
 
     public void set(float... v) {
-        markDirty();
-        MemorySegment.copy(v, 0, data, ValueLayout.JAVA_FLOAT, 0, v.length);
+        MemorySegment.copy(v, 0, scratch, ValueLayout.JAVA_FLOAT, 0, v.length);
+        commit();
     }
 
     public void set(Vector4fc v) {
-        markDirty();
-        Vectorn.put(v, data);
+        Vectorn.put(v, scratch);
+        commit();
     }
 
     public void set(Matrix4fc m) {
-        markDirty();
-        Matrixn.put(m, data);
+        Matrixn.put(m, scratch);
+        commit();
     }
 
-    private void markDirty() {
-        dirty = true;
+    /**
+     * Copies the written value and marks this uniform dirty if the value has changed.
+     */
+    private void commit() {
+        if (scratch.mismatch(data) != -1) {
+            data.copyFrom(scratch);
+            program.markUniformDirty(index);
+        }
     }
 
-    public void specify() {
-        if (!dirty) return;
-        dirty = false;
+    /**
+     * Uploads the value of this uniform. The dirty state is managed by the {@link GLProgram#specifyUniforms() program}.
+     */
+    void specify() {
         if (GLLoader.getExtCapabilities().GL_ARB_separate_shader_objects) {
             switch (type) {
                 case INT -> GL.programUniform1iv(program.id(), location, 1, data);
@@ -136,6 +151,10 @@ public final class GLUniform {
         return program;
     }
 
+    public int index() {
+        return index;
+    }
+
     public int location() {
         return location;
     }
@@ -0,0 +1,106 @@
+/*
+ * cuboidx - A 3D sandbox game
+ * Copyright (C) 2023  XenFork Union
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package cuboidx.client.gl;
+
+import org.joml.Matrix4fc;
+import overrungl.joml.Matrixn;
+import overrungl.opengl.GL;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+
+/**
+ * A uniform buffer that holds a std140 uniform block, bound at a fixed binding point.
+ * <p>
+ * The data is written into client memory, and is uploaded with {@link #upload()} only if it has changed.
+ * The upload respecifies the whole buffer, so that the draws still using the old data do not stall it.
+ * All methods must be called from the render thread.
+ *
+ * @author squid233
+ * @since 0.1.0
+ */
+public final class GLUniformBuffer implements AutoCloseable {
+    /**
+     * The size of a {@code mat4} in std140.
+     */
+    public static final long MAT4_SIZE = 16 * Float.BYTES;
+    private final int id;
+    private final int binding;
+    private final Arena arena = Arena.ofConfined();
+    private final MemorySegment data;
+    private final MemorySegment scratch;
+    private boolean dirty = true;
+
+    /**
+     * Creates the uniform buffer and binds it to the given binding point.
+     *
+     * @param size    the size of the uniform block in bytes
+     * @param binding the binding point
+     */
+    public GLUniformBuffer(long size, int binding) {
+        this.id = GL.genBuffer();
+        this.binding = binding;
+        this.data = arena.allocate(size, 16);
+        this.scratch = arena.allocate(MAT4_SIZE, 16);
+        GL.bindBuffer(GL.UNIFORM_BUFFER, id);
+        GL.bufferData(GL.UNIFORM_BUFFER, data, GL.DYNAMIC_DRAW);
+        GL.bindBuffer(GL.UNIFORM_BUFFER, 0);
+        GL.bindBufferBase(GL.UNIFORM_BUFFER, binding, id);
+    }
+
+    /**
+     * Writes a matrix at the given offset.
+     *
+     * @param offset the offset in bytes; a multiple of 16
+     * @param m      the matrix
+     */
+    public void set(long offset, Matrix4fc m) {
+        Matrixn.put(m, scratch);
+        final MemorySegment target = data.asSlice(offset, MAT4_SIZE);
+        if (target.mismatch(scratch) != -1) {
+            target.copyFrom(scratch);
+            dirty = true;
+        }
+    }
+
+    /**
+     * Uploads the data if it has changed since the last upload.
+     */
+    public void upload() {
+        if (!dirty) return;
+        dirty = false;
+        GL.bindBuffer(GL.UNIFORM_BUFFER, id);
+        GL.bufferData(GL.UNIFORM_BUFFER, data, GL.DYNAMIC_DRAW);
+        GL.bindBuffer(GL.UNIFORM_BUFFER, 0);
+    }
+
+    public int id() {
+        return id;
+    }
+
+    public int binding() {
+        return binding;
+    }
+
+    @Override
+    public void close() {
+        GL.deleteBuffer(id);
+        arena.close();
+    }
+}
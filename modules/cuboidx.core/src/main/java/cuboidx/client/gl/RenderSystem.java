@@ -19,10 +19,12 @@
 package cuboidx.client.gl;
 
 import cuboidx.client.texture.Texture2D;
+import cuboidx.client.texture.TextureArray;
 import org.joml.FrustumIntersection;
 import org.joml.FrustumRayBuilder;
 import org.joml.Matrix4f;
 import org.joml.Matrix4fStack;
+import overrungl.opengl.GL;
 
 import java.util.function.Consumer;
 
@@ -31,6 +33,14 @@ import java.util.function.Consumer;
  * @since 0.1.0
  */
 public final class RenderSystem {
+    /**
+     * The name of the uniform block of the camera, which holds {@code ProjectionMatrix} and {@code ViewMatrix} in std140.
+     */
+    public static final String CAMERA_BLOCK = "Camera";
+    /**
+     * The binding point of the {@value #CAMERA_BLOCK} uniform block.
+     */
+    public static final int CAMERA_BINDING = 0;
     private static final Matrix4fStack projectionMatrix = new Matrix4fStack(4);
     private static final Matrix4fStack viewMatrix = new Matrix4fStack(32);
     private static final Matrix4fStack modelMatrix = new Matrix4fStack(32);
@@ -38,6 +48,7 @@ public final class RenderSystem {
     private static final Matrix4f modelViewMatrix = new Matrix4f();
     private static final FrustumIntersection frustum = new FrustumIntersection();
     private static final FrustumRayBuilder ray = new FrustumRayBuilder();
+    private static GLUniformBuffer cameraBuffer;
 
     ///////////////////////////////////////////////////////////////////////////
     // OpenGL state manage
@@ -57,14 +68,16 @@ public final class RenderSystem {
         return program;
     }
 
+    /**
+     * Sets the model matrix of the given program and uploads its changed uniforms.
+     * The projection and view matrices are shared by all programs; see {@link #uploadCamera()}.
+     *
+     * @param program the program
+     */
     public static void programSetupMatrix(GLProgram program) {
-        final GLUniform projectionMatrix1 = program.projectionMatrix();
-        if (projectionMatrix1 != null) {
-            projectionMatrix1.set(projectionMatrix());
-        }
-        final GLUniform modelViewMatrix1 = program.modelViewMatrix();
-        if (modelViewMatrix1 != null) {
-            modelViewMatrix1.set(modelViewMatrix());
+        final GLUniform modelMatrix1 = program.modelMatrix();
+        if (modelMatrix1 != null) {
+            modelMatrix1.set(modelMatrix());
         }
         program.specifyUniforms();
     }
@@ -93,6 +106,14 @@ public final class RenderSystem {
         bindTexture2D(texture.id());
     }
 
+    public static void bindTexture2DArray(int texture) {
+        GLStateMgr.bindTexture2DArray(texture);
+    }
+
+    public static void bindTexture2DArray(TextureArray texture) {
+        bindTexture2DArray(texture.id());
+    }
+
     public static void enableDepthTest() {
         GLStateMgr.enableDepthTest();
     }
@@ -146,6 +167,26 @@ public final class RenderSystem {
         GLStateMgr.disablePolygonOffsetLine();
     }
 
+    public static void enableBlend() {
+        GLStateMgr.enableBlend();
+    }
+
+    public static void disableBlend() {
+        GLStateMgr.disableBlend();
+    }
+
+    public static void blendFunc(int sfactor, int dfactor) {
+        GLStateMgr.blendFunc(sfactor, dfactor);
+    }
+
+    public static void defaultBlendFunc() {
+        blendFunc(GL.SRC_ALPHA, GL.ONE_MINUS_SRC_ALPHA);
+    }
+
+    public static void depthMask(boolean flag) {
+        GLStateMgr.depthMask(flag);
+    }
+
     ///////////////////////////////////////////////////////////////////////////
     // Render system
     ///////////////////////////////////////////////////////////////////////////
@@ -162,6 +203,31 @@ public final class RenderSystem {
         return modelMatrix;
     }
 
+    /**
+     * Creates the buffer of the {@value #CAMERA_BLOCK} uniform block. Must be called once before rendering.
+     */
+    public static void initCameraBuffer() {
+        cameraBuffer = new GLUniformBuffer(2 * GLUniformBuffer.MAT4_SIZE, CAMERA_BINDING);
+    }
+
+    /**
+     * Writes the projection and view matrices into the {@value #CAMERA_BLOCK} uniform block.
+     * This should be called once after the matrices are set up for a pass, instead of once per program.
+     */
+    public static void uploadCamera() {
+        GLStateMgr.flushPendingDraws();
+        cameraBuffer.set(0, projectionMatrix);
+        cameraBuffer.set(GLUniformBuffer.MAT4_SIZE, viewMatrix);
+        cameraBuffer.upload();
+    }
+
+    public static void closeCameraBuffer() {
+        if (cameraBuffer != null) {
+            cameraBuffer.close();
+            cameraBuffer = null;
+        }
+    }
+
     public static Matrix4f projectionViewMatrix() {
         return projectionMatrix.mul(viewMatrix, projectionViewMatrix);
     }
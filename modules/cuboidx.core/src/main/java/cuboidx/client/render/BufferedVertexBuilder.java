@@ -22,8 +22,8 @@ import cuboidx.client.gl.GLDrawMode;
 import cuboidx.util.math.MathUtil;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
 import org.overrun.pooling.Poolable;
-import overrungl.util.MemoryUtil;
 
 import java.lang.foreign.*;
 import java.lang.foreign.MemoryLayout.PathElement;
@@ -46,11 +46,14 @@ public final class BufferedVertexBuilder implements Poolable, VertexBuilder, Aut
     private final int verticesSize;
     private final int indicesSize;
     private final Arena arena;
-    private final MemorySegment data;
-    private final MemorySegment indexData;
+    private final MemorySegment ownData;
+    private final MemorySegment ownIndexData;
+    private MemorySegment data;
+    private MemorySegment indexData;
     private float x, y, z;
     private float r, g, b, a;
     private float u, v;
+    private float layer;
     private int vertexCount = 0;
     private int indexCount = 0;
     private GLDrawMode drawMode = GLDrawMode.TRIANGLES;
@@ -71,8 +74,10 @@ public final class BufferedVertexBuilder implements Poolable, VertexBuilder, Aut
             }
         }
         this.arena = Arena.ofShared();
-        this.data = arena.allocate(sequenceLayout);
-        this.indexData = arena.allocateArray(ValueLayout.JAVA_INT, indicesSize);
+        this.ownData = arena.allocate(sequenceLayout);
+        this.ownIndexData = arena.allocateArray(ValueLayout.JAVA_INT, indicesSize);
+        this.data = ownData;
+        this.indexData = ownIndexData;
     }
 
     @Override
@@ -86,8 +91,11 @@ public final class BufferedVertexBuilder implements Poolable, VertexBuilder, Aut
         a = 0.0f;
         u = 0.0f;
         v = 0.0f;
+        layer = 0.0f;
         drawMode = GLDrawMode.TRIANGLES;
         drawing = false;
+        data = ownData;
+        indexData = ownIndexData;
         clear();
     }
 
@@ -97,41 +105,55 @@ public final class BufferedVertexBuilder implements Poolable, VertexBuilder, Aut
     }
 
     public void begin(GLDrawMode mode) {
+        begin(mode, ownData, ownIndexData);
+    }
+
+    /**
+     * Begins drawing into the given memory instead of the memory of this builder.
+     *
+     * @param mode      the draw mode
+     * @param data      the vertex data. Must be at least {@link #dataCapacity()} bytes
+     * @param indexData the index data. Must be at least {@link #indexDataCapacity()} bytes
+     */
+    public void begin(GLDrawMode mode, MemorySegment data, MemorySegment indexData) {
         if (drawing) {
             logger.warn("Calling .begin while drawing; ignoring");
             return;
         }
+        if (data.byteSize() < dataCapacity() || indexData.byteSize() < indexDataCapacity()) {
+            logger.warn("The target memory is too small; drawing into the builder");
+            data = ownData;
+            indexData = ownIndexData;
+        }
         clear();
+        this.data = data;
+        this.indexData = indexData;
         this.drawMode = mode;
         drawing = true;
     }
 
-    // TODO: 2023/7/8 Value object
-    public int end(MemorySegment outDataSize, MemorySegment data, MemorySegment indexData) {
-        final long dataSize = sequenceLayout.byteOffset(PathElement.sequenceElement(vertexCount));
-
-        if (MemoryUtil.isNullptr(data)) {
-            if (MemoryUtil.isNullptr(indexData) && !MemoryUtil.isNullptr(outDataSize)) {
-                outDataSize.set(ValueLayout.JAVA_LONG, 0, dataSize);
-            }
-            return indexCount;
-        }
-
+    /**
+     * Ends drawing.
+     * <p>
+     * The returned buffer is a view of the memory drawn into without copying,
+     * and it is valid until this builder is {@link #reset() reset} or begins again.
+     *
+     * @return the built buffer
+     */
+    public BuiltBuffer end() {
         if (!drawing) {
             logger.warn("Calling .end while not drawing; ignoring");
-            return 0;
+            return BuiltBuffer.EMPTY;
         }
-        if (vertexCount == 0 || indexCount == 0) return 0;
-
-        MemorySegment.copy(this.data, 0, data, 0, dataSize);
-        if (!MemoryUtil.isNullptr(indexData))
-            MemorySegment.copy(this.indexData, ValueLayout.JAVA_INT, 0, indexData, ValueLayout.JAVA_INT, 0, indexCount);
-
         drawing = false;
-        final int count = indexCount;
-        vertexCount = 0;
-        indexCount = 0;
-        return count;
+        // the indices may be emitted alone to sort the quads uploaded before
+        if (indexCount == 0) return BuiltBuffer.EMPTY;
+
+        return new BuiltBuffer(drawMode,
+            vertexCount,
+            indexCount,
+            data.asSlice(0, vertexLayout.layout().byteSize() * vertexCount),
+            indexData.asSlice(0, (long) indexCount << 2));
     }
 
     @Override
@@ -175,6 +197,12 @@ public final class BufferedVertexBuilder implements Poolable, VertexBuilder, Aut
         return this;
     }
 
+    @Override
+    public BufferedVertexBuilder layer(float layer) {
+        this.layer = layer;
+        return this;
+    }
+
     @Override
     public void emit() {
         if ((vertexCount % drawMode.vertexCount()) == 0) {
@@ -188,6 +216,7 @@ public final class BufferedVertexBuilder implements Poolable, VertexBuilder, Aut
         final int pos = vertexLayout.indexOf(VertexFormat.POSITION);
         final int color = vertexLayout.indexOf(VertexFormat.COLOR);
         final int uv0 = vertexLayout.indexOf(VertexFormat.UV0);
+        final int layerIndex = vertexLayout.indexOf(VertexFormat.LAYER);
         if (pos != -1) {
             final VertexFormat format = formats.get(pos);
             varHandle(format, 0).set(data, count, x);
@@ -206,9 +235,85 @@ public final class BufferedVertexBuilder implements Poolable, VertexBuilder, Aut
             varHandle(format, 0).set(data, count, u);
             varHandle(format, 1).set(data, count, v);
         }
+        if (layerIndex != -1) {
+            varHandle(formats.get(layerIndex), 0).set(data, count, layer);
+        }
         vertexCount++;
     }
 
+    /**
+     * {@return the count of the vertices emitted since begin}
+     */
+    public int vertexCount() {
+        return vertexCount;
+    }
+
+    /**
+     * {@return the count of the indices emitted since begin}
+     */
+    public int indexCount() {
+        return indexCount;
+    }
+
+    /**
+     * Sorts the quads emitted since the given vertex from far to near the given point, by reordering their indices.
+     * Each quad must have been emitted as 4 vertices followed by 6 indices.
+     *
+     * @param firstVertex the first vertex of the quads
+     * @param firstIndex  the first index of the quads
+     * @param x           the x of the point
+     * @param y           the y of the point
+     * @param z           the z of the point
+     * @return the quads to be sorted again later, or {@code null} if there are less than 2 quads
+     */
+    public @Nullable SortableQuads sortQuads(int firstVertex, int firstIndex, float x, float y, float z) {
+        final int quadCount = Math.min((vertexCount - firstVertex) / 4, (indexCount - firstIndex) / 6);
+        if (quadCount < 2) return null;
+        final VertexFormat format = vertexLayout.formats().get(vertexLayout.indexOf(VertexFormat.POSITION));
+        final VarHandle handleX = varHandle(format, 0);
+        final VarHandle handleY = varHandle(format, 1);
+        final VarHandle handleZ = varHandle(format, 2);
+        final float[] centers = new float[quadCount * 3];
+        for (int i = 0; i < quadCount; i++) {
+            // the center is the midpoint of the opposite corners
+            final long v0 = firstVertex + i * 4L;
+            final long v2 = v0 + 2;
+            centers[i * 3] = ((float) handleX.get(data, v0) + (float) handleX.get(data, v2)) * 0.5f;
+            centers[i * 3 + 1] = ((float) handleY.get(data, v0) + (float) handleY.get(data, v2)) * 0.5f;
+            centers[i * 3 + 2] = ((float) handleZ.get(data, v0) + (float) handleZ.get(data, v2)) * 0.5f;
+        }
+        final int[] indices = indexData.asSlice((long) firstIndex << 2, (long) quadCount * 6 << 2).toArray(ValueLayout.JAVA_INT);
+        final SortableQuads quads = new SortableQuads(centers, indices);
+        quads.sort(x, y, z, indexData, (long) firstIndex << 2);
+        return quads;
+    }
+
+    /**
+     * Emits the indices of the given quads sorted from far to near the given point, without vertices.
+     * The indices refer to the vertices the quads were emitted with.
+     *
+     * @param quads the quads
+     * @param x     the x of the point
+     * @param y     the y of the point
+     * @param z     the z of the point
+     */
+    public void sortedIndices(SortableQuads quads, float x, float y, float z) {
+        if (indexCount + quads.indexCount() > indicesSize) {
+            logger.warn("index count {} exceeds the limit {}", indexCount + quads.indexCount(), indicesSize);
+            return;
+        }
+        quads.sort(x, y, z, indexData, (long) indexCount << 2);
+        indexCount += quads.indexCount();
+    }
+
+    public long dataCapacity() {
+        return ownData.byteSize();
+    }
+
+    public long indexDataCapacity() {
+        return ownIndexData.byteSize();
+    }
+
     private VarHandle varHandle(VertexFormat format, int index) {
         return varHandleMap.get(format.varHandleKey(index));
     }
@@ -0,0 +1,56 @@
+/*
+ * cuboidx - A 3D sandbox game
+ * Copyright (C) 2023  XenFork Union
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package cuboidx.client.render;
+
+import cuboidx.client.gl.GLDrawMode;
+
+import java.lang.foreign.MemorySegment;
+
+/**
+ * The result of {@link BufferedVertexBuilder#end()}.
+ * <p>
+ * The segments are views of the memory of the builder; they are valid until the builder is reset.
+ *
+ * @param drawMode    the draw mode
+ * @param vertexCount the vertex count
+ * @param indexCount  the index count
+ * @param data        the vertex data
+ * @param indexData   the index data
+ * @author squid233
+ * @since 0.1.0
+ */
+public /* value */ record BuiltBuffer(GLDrawMode drawMode,
+                                     int vertexCount,
+                                     int indexCount,
+                                     MemorySegment data,
+                                     MemorySegment indexData) {
+    public static final BuiltBuffer EMPTY = new BuiltBuffer(GLDrawMode.TRIANGLES, 0, 0, MemorySegment.NULL, MemorySegment.NULL);
+
+    public boolean isEmpty() {
+        return vertexCount == 0 || indexCount == 0;
+    }
+
+    public long dataSize() {
+        return data.byteSize();
+    }
+
+    public long indexDataSize() {
+        return indexData.byteSize();
+    }
+}
@@ -20,8 +20,14 @@ package cuboidx.client.render;
 
 import cuboidx.client.CuboidX;
 import cuboidx.client.gl.GLProgram;
+import cuboidx.client.gl.GLProgramCache;
 import cuboidx.client.gl.RenderSystem;
+import cuboidx.client.render.world.BlockRenderLayer;
+import cuboidx.client.texture.PendingTexture;
+import cuboidx.client.texture.Texture2D;
+import cuboidx.client.texture.TextureArray;
 import cuboidx.client.texture.TextureAtlas;
+import cuboidx.client.texture.TextureAtlasCache;
 import cuboidx.registry.Registries;
 import cuboidx.util.ResourceLocation;
 import cuboidx.util.math.Direction;
@@ -29,9 +35,12 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import overrungl.opengl.GL;
 
+import java.nio.file.Path;
 import java.util.HashSet;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /**
  * @author squid233
@@ -39,15 +48,21 @@ import java.util.Set;
  */
 public final class GameRenderer implements AutoCloseable {
     private static final Logger logger = LogManager.getLogger();
+    private static final Path ATLAS_CACHE_DIRECTORY = Path.of("cache", "atlas");
+    private static final Path PROGRAM_CACHE_DIRECTORY = Path.of("cache", "program");
     private final CuboidX client;
     private final GLProgram positionColorProgram,
-        positionColorTextureProgram;
+        positionColorTextureProgram,
+        positionColorTextureArrayProgram;
+    private final GLProgram[] blockPrograms = new GLProgram[BlockRenderLayer.COUNT];
+    private final Tessellator tessellator;
+    private final GLProgramCache programCache;
+    private CompletableFuture<? extends PendingTexture> pendingBlockTextures;
+    private boolean blockTexturesReady = false;
 
     public GameRenderer(CuboidX client) {
         this.client = client;
-        positionColorProgram = loadProgram("core/position_color", VertexLayout.POSITION_COLOR);
-        positionColorTextureProgram = loadProgram("core/position_color_texture", VertexLayout.POSITION_COLOR_TEXTURE);
-
+        // decode the textures while the programs are compiled
         final Set<ResourceLocation> textures = new HashSet<>();
         for (var e : Registries.BLOCK_TYPE) {
             for (Direction direction : Direction.list()) {
@@ -56,29 +71,87 @@ public final class GameRenderer implements AutoCloseable {
                     textures.add(texture);
             }
         }
-        // TODO: 2023/6/17 load texture atlas asynchronously
-        final TextureAtlas atlas = TextureAtlas.load(TextureAtlas.BLOCK_ATLAS, textures);
-        client.textureManager().add(atlas);
-        logger.info("Created: {}x{}x{} {}", atlas.width(), atlas.height(), atlas.mipmapLevel(), TextureAtlas.BLOCK_ATLAS);
+        pendingBlockTextures = BlockRenderLayer.TEXTURE_ARRAY ?
+            TextureArray.decodeAsync(TextureArray.BLOCK_ARRAY, textures) :
+            new TextureAtlasCache(ATLAS_CACHE_DIRECTORY).loadAsync(TextureAtlas.BLOCK_ATLAS, textures);
+
+        RenderSystem.initCameraBuffer();
+        tessellator = new Tessellator();
+        programCache = new GLProgramCache(PROGRAM_CACHE_DIRECTORY);
+        positionColorProgram = loadProgram("core/position_color", VertexLayout.POSITION_COLOR);
+        positionColorTextureProgram = loadProgram("core/position_color_texture", VertexLayout.POSITION_COLOR_TEXTURE);
+        positionColorTextureArrayProgram = BlockRenderLayer.TEXTURE_ARRAY ?
+            loadProgram("core/position_color_texture_array", VertexLayout.POSITION_COLOR_TEXTURE_LAYER) :
+            null;
+        for (BlockRenderLayer layer : BlockRenderLayer.list()) {
+            blockPrograms[layer.id()] = loadProgram(layer.shader(), layer.layout());
+        }
+
+        // the first frames are drawn with the placeholder
+        client.textureManager().add(BlockRenderLayer.TEXTURE_ARRAY ?
+            TextureArray.placeholder(TextureArray.BLOCK_ARRAY) :
+            TextureAtlas.placeholder(TextureAtlas.BLOCK_ATLAS));
+    }
+
+    /**
+     * Uploads the block textures once they are decoded, replacing the placeholder.
+     */
+    private void uploadBlockTextures() {
+        final CompletableFuture<? extends PendingTexture> pending = pendingBlockTextures;
+        if (pending == null || !pending.isDone()) return;
+        pendingBlockTextures = null;
+        try {
+            final Texture2D texture = pending.join().upload();
+            final Texture2D placeholder = client.textureManager().get(texture.location());
+            client.textureManager().add(texture);
+            if (placeholder != null) placeholder.close();
+            logger.info("Created: {}x{}x{} {}", texture.width(), texture.height(), texture.mipmapLevel(), texture.location());
+        } catch (RuntimeException e) {
+            // either the decoding or the upload failed
+            logger.error("Failed to load the block textures; keeping the placeholder",
+                e instanceof CompletionException ? e.getCause() : e);
+        } finally {
+            // the chunks are compiled with the placeholder rather than never
+            blockTexturesReady = true;
+        }
     }
 
-    private static GLProgram loadProgram(String path, VertexLayout layout) {
-        return Objects.requireNonNull(GLProgram.load(ResourceLocation.cuboidx(path), layout), STR."Couldn't load program \{path}");
+    /**
+     * {@return {@code true} if the block textures are uploaded or failed to load}
+     * The chunks are not compiled before, since their meshes refer to the textures.
+     */
+    public boolean blockTexturesReady() {
+        return blockTexturesReady;
+    }
+
+    private GLProgram loadProgram(String path, VertexLayout layout) {
+        return Objects.requireNonNull(GLProgram.load(ResourceLocation.cuboidx(path), layout, programCache), STR."Couldn't load program \{path}");
     }
 
     public void render(double partialTick) {
+        uploadBlockTextures();
         client.worldRenderer().renderChunks(partialTick);
         client.worldRenderer().renderHitResult();
         renderGui(partialTick);
+        tessellator.flush();
     }
 
     private void renderGui(double partialTick) {
+        tessellator.flush();
         GL.clear(GL.DEPTH_BUFFER_BIT);
         RenderSystem.projectionMatrix().setOrtho(0, client.width(), 0, client.height(), -100, 100);
         RenderSystem.viewMatrix().identity();
+        RenderSystem.uploadCamera();
         client.worldRenderer().renderGui(partialTick);
     }
 
+    /**
+     * {@return the tessellator for the immediate-mode draws} Must be used from the render thread.
+     */
+    public Tessellator tessellator() {
+        return tessellator;
+    }
+
     public GLProgram positionColorProgram() {
         return positionColorProgram;
     }
@@ -87,11 +160,36 @@ public final class GameRenderer implements AutoCloseable {
         return positionColorTextureProgram;
     }
 
+    /**
+     * {@return the program to draw a block with the {@link #tessellator() tessellator}}
+     * It samples the texture array if {@link BlockRenderLayer#TEXTURE_ARRAY} is set, otherwise the atlas.
+     */
+    public GLProgram blockItemProgram() {
+        return BlockRenderLayer.TEXTURE_ARRAY ? positionColorTextureArrayProgram : positionColorTextureProgram;
+    }
+
+    /**
+     * {@return the program to draw the chunks of the given layer}
+     *
+     * @param layer the render layer
+     */
+    public GLProgram blockProgram(BlockRenderLayer layer) {
+        return blockPrograms[layer.id()];
+    }
+
     @Override
     public void close() {
         if (positionColorProgram != null) positionColorProgram.close();
         if (positionColorTextureProgram != null) positionColorTextureProgram.close();
-        Tessellator.getInstance().dispose();
+        if (positionColorTextureArrayProgram != null) positionColorTextureArrayProgram.close();
+        for (GLProgram program : blockPrograms) {
+            if (program != null) program.close();
+        }
+        tessellator.close();
+        if (pendingBlockTextures != null) {
+            pendingBlockTextures.thenAccept(PendingTexture::close);
+        }
+        RenderSystem.closeCameraBuffer();
         logger.info("Cleaned up GameRenderer");
     }
 }
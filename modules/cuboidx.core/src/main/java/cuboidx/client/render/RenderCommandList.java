@@ -0,0 +1,94 @@
+/*
+ * cuboidx - A 3D sandbox game
+ * Copyright (C) 2023  XenFork Union
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package cuboidx.client.render;
+
+import java.util.Arrays;
+
+/**
+ * A command list records draw packets, so that the draws of a frame can be prepared away from the render thread
+ * and submitted with the fewest state changes.
+ * <p>
+ * Each packet has a state key and a target. The state key identifies the GL state the packet is drawn with,
+ * such as the program and the blend function, and the target identifies what to draw, such as the index of a chunk.
+ * {@link #sort() Sorting} groups the packets by the state key and keeps the order in which the packets of the same state
+ * were added, so that the states are set once per group, and the packets within a group are still in their draw order.
+ * <p>
+ * The list is not thread-safe. It can be recorded on one thread and then read on another,
+ * if the threads are synchronized in between.
+ *
+ * @author squid233
+ * @since 0.1.0
+ */
+public final class RenderCommandList {
+    private static final int DEFAULT_CAPACITY = 256;
+    /**
+     * The state key in the high 32 bits, and the sequence of the packet in the low 32 bits.
+     */
+    private long[] keys = new long[DEFAULT_CAPACITY];
+    private int[] targets = new int[DEFAULT_CAPACITY];
+    private int size = 0;
+
+    /**
+     * Adds a packet.
+     *
+     * @param state  the state key; must be non-negative
+     * @param target the target
+     */
+    public void add(int state, int target) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            targets = Arrays.copyOf(targets, size * 2);
+        }
+        keys[size] = ((long) state << 32) | size;
+        targets[size] = target;
+        size++;
+    }
+
+    /**
+     * Sorts the packets by the state key, keeping the order of the packets with the same state key.
+     */
+    public void sort() {
+        Arrays.sort(keys, 0, size);
+    }
+
+    /**
+     * {@return the state key of the packet at the given index}
+     *
+     * @param index the index of the packet
+     */
+    public int state(int index) {
+        return (int) (keys[index] >>> 32);
+    }
+
+    /**
+     * {@return the target of the packet at the given index}
+     *
+     * @param index the index of the packet
+     */
+    public int target(int index) {
+        return targets[(int) keys[index]];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * cuboidx - A 3D sandbox game
+ * Copyright (C) 2023  XenFork Union
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package cuboidx.client.render;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.util.Arrays;
+
+/**
+ * The centers and the indices of the quads emitted by a {@link BufferedVertexBuilder},
+ * kept to sort the quads again without the vertex data.
+ * <p>
+ * Each quad has 3 floats of its center and 6 indices, in the order the quads were emitted.
+ *
+ * @author squid233
+ * @since 0.1.0
+ */
+public final class SortableQuads {
+    private final float[] centers;
+    private final int[] indices;
+
+    SortableQuads(float[] centers, int[] indices) {
+        this.centers = centers;
+        this.indices = indices;
+    }
+
+    /**
+     * {@return the count of the quads}
+     */
+    public int quadCount() {
+        return indices.length / 6;
+    }
+
+    /**
+     * {@return the count of the indices}
+     */
+    public int indexCount() {
+        return indices.length;
+    }
+
+    /**
+     * Writes the indices of the quads from far to near the given point.
+     *
+     * @param x      the x of the point
+     * @param y      the y of the point
+     * @param z      the z of the point
+     * @param dst    the memory to write the indices into
+     * @param offset the offset in the memory in bytes
+     */
+    public void sort(float x, float y, float z, MemorySegment dst, long offset) {
+        final int quadCount = quadCount();
+        // the distance in the high bits and the quad in the low bits; a non-negative float sorts as its bits
+        final long[] keys = new long[quadCount];
+        for (int i = 0; i < quadCount; i++) {
+            final float cx = centers[i * 3] - x;
+            final float cy = centers[i * 3 + 1] - y;
+            final float cz = centers[i * 3 + 2] - z;
+            keys[i] = ((long) Float.floatToRawIntBits(cx * cx + cy * cy + cz * cz) << 32) | i;
+        }
+        Arrays.sort(keys);
+        for (int i = 0; i < quadCount; i++) {
+            // the farthest first
+            final int quad = (int) keys[quadCount - 1 - i];
+            MemorySegment.copy(indices, quad * 6, dst, ValueLayout.JAVA_INT, offset + ((long) i * 6 << 2), 6);
+        }
+    }
+}
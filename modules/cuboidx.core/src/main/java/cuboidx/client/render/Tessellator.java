@@ -33,19 +33,39 @@ import java.lang.foreign.ValueLayout;
 import java.lang.invoke.VarHandle;
 
 /**
- * A vertex builder with builtin vertex buffer objects.
+ * A vertex builder for immediate-mode drawing, which streams the vertices through a ring buffer.
+ * <p>
+ * The vertices are built in client memory and written into the next free range of a ring of
+ * {@value #RING_BATCHES} batches with an unsynchronized {@code glMapBufferRange},
+ * so the GPU never waits for the draws that read the earlier ranges.
+ * When the ring wraps, the buffer is orphaned and the driver gives it fresh storage.
+ * <p>
+ * Consecutive {@link #begin(GLDrawMode, boolean) begin}/{@link #end() end} pairs with the same draw mode
+ * are coalesced into a single draw. The pending draw is flushed before any state change made through
+ * {@link GLStateMgr}, so the state must not be changed between {@code begin} and {@code end};
+ * call {@link #flush()} before changing the state directly with GL.
  *
  * @author squid233
  * @since 0.1.0
  */
-public final class Tessellator implements VertexBuilder {
+public final class Tessellator implements VertexBuilder, AutoCloseable {
+    private static final int MAX_VERTEX_COUNT = 30000;
     private static final int MAX_INDEX_COUNT = 40000;
-    private static final VertexLayout VERTEX_LAYOUT = VertexLayout.POSITION_COLOR_TEXTURE;
+    /**
+     * The count of the batches the ring buffer can hold before it wraps.
+     */
+    private static final int RING_BATCHES = 8;
+    private static final VertexLayout VERTEX_LAYOUT = VertexLayout.POSITION_COLOR_TEXTURE_LAYER;
     private static final SequenceLayout LAYOUT = MemoryLayout.sequenceLayout(
-        30000,
+        MAX_VERTEX_COUNT,
         VERTEX_LAYOUT.layout()
     );
-    // Position, Color, UV0  x, y, z, r, g, b, a, u, v
+    private static final long STRIDE = VERTEX_LAYOUT.layout().byteSize();
+    private static final long VERTEX_RING_SIZE = LAYOUT.byteSize() * RING_BATCHES;
+    private static final long INDEX_RING_SIZE = ((long) MAX_INDEX_COUNT << 2) * RING_BATCHES;
+    private static final int APPEND_FLAGS = GL.MAP_WRITE_BIT | GL.MAP_UNSYNCHRONIZED_BIT | GL.MAP_INVALIDATE_RANGE_BIT;
+    private static final int ORPHAN_FLAGS = GL.MAP_WRITE_BIT | GL.MAP_INVALIDATE_BUFFER_BIT;
+    // Position, Color, UV0, Layer  x, y, z, r, g, b, a, u, v, l
     private static final VarHandle px = varHandle(VertexFormat.POSITION, 0);
     private static final VarHandle py = varHandle(VertexFormat.POSITION, 1);
     private static final VarHandle pz = varHandle(VertexFormat.POSITION, 2);
@@ -55,25 +75,39 @@ public final class Tessellator implements VertexBuilder {
     private static final VarHandle ca = varHandle(VertexFormat.COLOR, 3);
     private static final VarHandle tu = varHandle(VertexFormat.UV0, 0);
     private static final VarHandle tv = varHandle(VertexFormat.UV0, 1);
+    private static final VarHandle tl = varHandle(VertexFormat.LAYER, 0);
     private final MemorySegment data = MemoryUtil.calloc(1, LAYOUT);
     private final MemorySegment indexData = MemoryUtil.calloc(MAX_INDEX_COUNT, ValueLayout.JAVA_INT);
+    private final int vao, vbo, ebo;
     private float x, y, z;
     private float r, g, b, a;
     private float u, v;
+    private float layer;
     private GLDrawMode mode = GLDrawMode.TRIANGLES;
     private boolean autoIndices = true;
     private int vertexCount = 0;
     private int indexCount = 0;
-    private int vao, vbo, ebo;
+    private long vertexRingOffset = 0;
+    private long indexRingOffset = 0;
 
-    private Tessellator() {
-    }
-
-    public static Tessellator getInstance() {
-        class Holder {
-            private static final Tessellator INSTANCE = new Tessellator();
-        }
-        return Holder.INSTANCE;
+    /**
+     * Creates the tessellator. Must be called from the render thread.
+     */
+    public Tessellator() {
+        vao = GL.genVertexArray();
+        vbo = GL.genBuffer();
+        ebo = GL.genBuffer();
+        final int vertexArrayBinding = GLStateMgr.vertexArrayBinding();
+        final int arrayBufferBinding = GLStateMgr.arrayBufferBinding();
+        RenderSystem.bindVertexArray(vao);
+        RenderSystem.bindArrayBuffer(vbo);
+        GL.bufferData(GL.ARRAY_BUFFER, VERTEX_RING_SIZE, GL.STREAM_DRAW);
+        VERTEX_LAYOUT.specifyAttributes();
+        GL.bindBuffer(GL.ELEMENT_ARRAY_BUFFER, ebo);
+        GL.bufferData(GL.ELEMENT_ARRAY_BUFFER, INDEX_RING_SIZE, GL.STREAM_DRAW);
+        RenderSystem.bindArrayBuffer(arrayBufferBinding);
+        RenderSystem.bindVertexArray(vertexArrayBinding);
+        GLStateMgr.setPendingDrawFlusher(this::flush);
     }
 
     private static VarHandle varHandle(VertexFormat format, long index) {
@@ -84,49 +118,69 @@ public final class Tessellator implements VertexBuilder {
         );
     }
 
+    /**
+     * Begins a batch. If the pending draw has another draw mode, it is flushed first.
+     *
+     * @param mode           the draw mode
+     * @param useAutoIndices {@code true} to emit the indices of the draw mode for each primitive
+     */
     public void begin(GLDrawMode mode, boolean useAutoIndices) {
-        this.mode = mode;
-        vertexCount = 0;
-        indexCount = 0;
+        if (this.mode != mode) {
+            flush();
+            this.mode = mode;
+        }
         autoIndices = useAutoIndices;
     }
 
+    /**
+     * Ends a batch. The batch is drawn together with the following batches of the same draw mode,
+     * until the state is changed or {@link #flush()} is called.
+     */
     public void end() {
-        flush();
     }
 
+    /**
+     * Draws the pending vertices.
+     */
     public void flush() {
-        if (vertexCount == 0 || indexCount == 0) return;
+        final int vertices = vertexCount;
+        final int indices = indexCount;
+        // reset first, since the state changes below would flush again
+        vertexCount = 0;
+        indexCount = 0;
+        if (vertices == 0 || indices == 0) return;
 
-        final boolean noVao = vao == 0;
-        final boolean noVbo = vbo == 0;
-        final boolean noEbo = ebo == 0;
-        if (noVao) vao = GL.genVertexArray();
-        if (noVbo) vbo = GL.genBuffer();
-        if (noEbo) ebo = GL.genBuffer();
+        final long vertexSize = vertices * STRIDE;
+        final long indexSize = (long) indices << 2;
+        final boolean wrap = vertexRingOffset + vertexSize > VERTEX_RING_SIZE || indexRingOffset + indexSize > INDEX_RING_SIZE;
+        if (wrap) {
+            vertexRingOffset = 0;
+            indexRingOffset = 0;
+        }
+        final int flags = wrap ? ORPHAN_FLAGS : APPEND_FLAGS;
 
         final int vertexArrayBinding = GLStateMgr.vertexArrayBinding();
         final int arrayBufferBinding = GLStateMgr.arrayBufferBinding();
         RenderSystem.bindVertexArray(vao);
         RenderSystem.bindArrayBuffer(vbo);
-        if (noVbo) {
-            GL.bufferData(GL.ARRAY_BUFFER, data, GL.STREAM_DRAW);
-            VERTEX_LAYOUT.specifyAttributes();
-        } else {
-            GL.bufferSubData(GL.ARRAY_BUFFER, 0, LAYOUT.byteOffset(PathElement.sequenceElement(vertexCount)), data);
-        }
+        write(GL.ARRAY_BUFFER, vertexRingOffset, data, vertexSize, flags);
         RenderSystem.bindArrayBuffer(arrayBufferBinding);
-        if (noEbo) {
-            GL.bindBuffer(GL.ELEMENT_ARRAY_BUFFER, ebo);
-            GL.bufferData(GL.ELEMENT_ARRAY_BUFFER, indexData, GL.STREAM_DRAW);
-        } else {
-            GL.bufferSubData(GL.ELEMENT_ARRAY_BUFFER, 0, (long) indexCount << 2, indexData);
-        }
-        GL.drawElements(mode.enumValue(), indexCount, GL.UNSIGNED_INT, MemorySegment.NULL);
+        write(GL.ELEMENT_ARRAY_BUFFER, indexRingOffset, indexData, indexSize, flags);
+        GL.drawElementsBaseVertex(mode.enumValue(),
+            indices,
+            GL.UNSIGNED_INT,
+            MemorySegment.ofAddress(indexRingOffset),
+            (int) (vertexRingOffset / STRIDE));
         RenderSystem.bindVertexArray(vertexArrayBinding);
 
-        vertexCount = 0;
-        indexCount = 0;
+        vertexRingOffset += vertexSize;
+        indexRingOffset += indexSize;
+    }
+
+    private static void write(int target, long offset, MemorySegment src, long size, int flags) {
+        final MemorySegment mapped = GL.mapBufferRange(target, offset, size, flags).reinterpret(size);
+        MemorySegment.copy(src, 0, mapped, 0, size);
+        GL.unmapBuffer(target);
     }
 
     @Override
@@ -165,15 +219,22 @@ public final class Tessellator implements VertexBuilder {
         return this;
     }
 
+    @Override
+    public Tessellator layer(float layer) {
+        this.layer = layer;
+        return this;
+    }
+
     @Override
     public void emit() {
         if ((vertexCount % mode.vertexCount()) == 0) {
+            // flush before emitting the indices of the primitive, so that they are not dropped with the flushed ones
+            if ((vertexCount + mode.vertexCount()) > MAX_VERTEX_COUNT) {
+                flush();
+            }
             if (autoIndices) {
                 indices(mode.indices());
             }
-            if ((vertexCount + mode.vertexCount()) > LAYOUT.elementCount()) {
-                flush();
-            }
         }
         final long count = vertexCount;
         px.set(data, count, x);
@@ -185,14 +246,17 @@ public final class Tessellator implements VertexBuilder {
         ca.set(data, count, MathUtil.denormalize(a));
         tu.set(data, count, u);
         tv.set(data, count, v);
+        tl.set(data, count, layer);
         vertexCount++;
     }
 
-    public void dispose() {
+    @Override
+    public void close() {
+        GLStateMgr.setPendingDrawFlusher(null);
         MemoryUtil.free(data);
         MemoryUtil.free(indexData);
-        if (GL.isVertexArray(vao)) RenderSystem.deleteVertexArray(vao);
-        if (GL.isBuffer(vbo)) RenderSystem.deleteArrayBuffer(vbo);
-        if (GL.isBuffer(ebo)) GL.deleteBuffer(ebo);
+        RenderSystem.deleteVertexArray(vao);
+        RenderSystem.deleteArrayBuffer(vbo);
+        GL.deleteBuffer(ebo);
     }
 }
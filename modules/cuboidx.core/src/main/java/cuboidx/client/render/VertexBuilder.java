@@ -31,5 +31,15 @@ public interface VertexBuilder {
 
     VertexBuilder texture(float u, float v);
 
+    /**
+     * Sets the layer of the texture array. It is ignored if the vertex layout has no {@link VertexFormat#LAYER layer}.
+     *
+     * @param layer the layer
+     * @return this
+     */
+    default VertexBuilder layer(float layer) {
+        return this;
+    }
+
     void emit();
 }
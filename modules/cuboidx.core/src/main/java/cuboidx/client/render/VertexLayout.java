@@ -36,6 +36,7 @@ import java.util.StringJoiner;
 public final class VertexLayout {
     public static final VertexLayout POSITION_COLOR = new VertexLayout(VertexFormat.POSITION, VertexFormat.COLOR);
     public static final VertexLayout POSITION_COLOR_TEXTURE = new VertexLayout(VertexFormat.POSITION, VertexFormat.COLOR, VertexFormat.UV0);
+    public static final VertexLayout POSITION_COLOR_TEXTURE_LAYER = new VertexLayout(VertexFormat.POSITION, VertexFormat.COLOR, VertexFormat.UV0, VertexFormat.LAYER);
     private final int stride;
     private final List<VertexFormat> formats;
     private final MemorySegment[] pointers;
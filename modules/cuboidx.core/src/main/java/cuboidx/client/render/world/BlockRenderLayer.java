@@ -20,14 +20,60 @@ package cuboidx.client.render.world;
 
 import cuboidx.client.render.VertexLayout;
 
+import java.util.List;
+
 /**
  * The render layer indicates which layer a block is.
+ * <p>
+ * Each layer is compiled into its own meshes and drawn with its own shader:
+ * <ul>
+ *     <li>{@link #OPAQUE} blocks are drawn first without {@code discard}, so that the early depth test is kept;</li>
+ *     <li>{@link #CUTOUT} blocks discard the transparent texels;</li>
+ *     <li>{@link #TRANSLUCENT} blocks are blended and drawn last, from far to near.</li>
+ * </ul>
  *
+ * @param id           the index of this layer in {@link #list()}
+ * @param shader       the path of the shader program
+ * @param layout       the vertex layout
+ * @param verticesSize the maximum count of the vertices of a mesh
+ * @param indicesSize  the maximum count of the indices of a mesh
  * @author squid233
  * @see WorldRenderer
+ * @see BlockRenderLayers
  * @since 0.1.0
  */
-public /* value */ record BlockRenderLayer(VertexLayout layout, int verticesSize, int indicesSize) {
+public /* value */ record BlockRenderLayer(int id, String shader, VertexLayout layout, int verticesSize, int indicesSize) {
+    /**
+     * {@code true} to sample the block textures from a {@link cuboidx.client.texture.TextureArray texture array},
+     * a texture a layer, instead of the {@link cuboidx.client.texture.TextureAtlas atlas}.
+     * The vertices then carry the layer and the coordinates in blocks instead of the coordinates in the atlas.
+     * Enabled with the system property {@code cuboidx.textureArray}.
+     */
+    public static final boolean TEXTURE_ARRAY = Boolean.getBoolean("cuboidx.textureArray");
     public static final BlockRenderLayer OPAQUE =
-        new BlockRenderLayer(VertexLayout.POSITION_COLOR_TEXTURE, 48 * 1024, 48 * 1024 / 4 * 6);
+        new BlockRenderLayer(0, shaderPath("core/block_opaque"), vertexLayout(), 48 * 1024, 48 * 1024 / 4 * 6);
+    public static final BlockRenderLayer CUTOUT =
+        new BlockRenderLayer(1, shaderPath("core/block_cutout"), vertexLayout(), 48 * 1024, 48 * 1024 / 4 * 6);
+    public static final BlockRenderLayer TRANSLUCENT =
+        new BlockRenderLayer(2, shaderPath("core/block_translucent"), vertexLayout(), 48 * 1024, 48 * 1024 / 4 * 6);
+    private static final List<BlockRenderLayer> LIST = List.of(OPAQUE, CUTOUT, TRANSLUCENT);
+    /**
+     * The count of the layers.
+     */
+    public static final int COUNT = LIST.size();
+
+    private static String shaderPath(String path) {
+        return TEXTURE_ARRAY ? STR."\{path}_array" : path;
+    }
+
+    private static VertexLayout vertexLayout() {
+        return TEXTURE_ARRAY ? VertexLayout.POSITION_COLOR_TEXTURE_LAYER : VertexLayout.POSITION_COLOR_TEXTURE;
+    }
+
+    /**
+     * {@return the layers in the order of drawing}
+     */
+    public static List<BlockRenderLayer> list() {
+        return LIST;
+    }
 }
@@ -0,0 +1,70 @@
+/*
+ * cuboidx - A 3D sandbox game
+ * Copyright (C) 2023  XenFork Union
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package cuboidx.client.render.world;
+
+import cuboidx.world.block.BlockType;
+import cuboidx.world.block.BlockTypes;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The client-side map from the blocks to their {@link BlockRenderLayer render layers}.
+ * The blocks not in the map are {@link BlockRenderLayer#OPAQUE opaque}.
+ *
+ * @author squid233
+ * @since 0.1.0
+ */
+public final class BlockRenderLayers {
+    private static final Map<BlockType, BlockRenderLayer> LAYERS = new ConcurrentHashMap<>();
+
+    static {
+        put(BlockTypes.OAK_LEAVES, BlockRenderLayer.CUTOUT);
+    }
+
+    private BlockRenderLayers() {
+        //no instance
+    }
+
+    public static void put(BlockType block, BlockRenderLayer layer) {
+        LAYERS.put(block, layer);
+    }
+
+    public static BlockRenderLayer get(BlockType block) {
+        return LAYERS.getOrDefault(block, BlockRenderLayer.OPAQUE);
+    }
+
+    /**
+     * {@return {@code true} if the given block hides the faces behind it}
+     */
+    public static boolean isOpaque(BlockType block) {
+        return !block.air() && get(block) == BlockRenderLayer.OPAQUE;
+    }
+
+    /**
+     * {@return {@code true} if the face of the given block towards the given neighbor is seen}
+     * The faces behind a non-opaque block are seen through it, except between the same blocks.
+     *
+     * @param block    the block
+     * @param neighbor the block adjacent to the face
+     */
+    public static boolean isFaceVisible(BlockType block, BlockType neighbor) {
+        return !block.air() && !isOpaque(neighbor) && neighbor != block;
+    }
+}
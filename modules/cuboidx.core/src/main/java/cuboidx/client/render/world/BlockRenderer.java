@@ -20,16 +20,14 @@ package cuboidx.client.render.world;
 
 import cuboidx.client.CuboidX;
 import cuboidx.client.render.VertexBuilder;
+import cuboidx.client.texture.TextureArray;
 import cuboidx.client.texture.TextureAtlas;
 import cuboidx.util.ResourceLocation;
 import cuboidx.util.math.Direction;
 import cuboidx.world.World;
 import cuboidx.world.block.BlockType;
-import org.overrun.binpacking.PackerFitPos;
-import org.overrun.binpacking.PackerRegionSize;
 
 import java.util.Objects;
-import java.util.Optional;
 
 /**
  * @author squid233
@@ -56,30 +54,41 @@ public final class BlockRenderer {
     }
 
     public void renderBlockFace(VertexBuilder builder, BlockType block, int x, int y, int z, Direction face) {
-        final TextureAtlas atlas = Objects.requireNonNull(client.textureManager().getAsAtlas(TextureAtlas.BLOCK_ATLAS));
+        renderBlockFace(builder, block, x, y, z, 1, face);
+    }
+
+    public void renderBlockFace(VertexBuilder builder, BlockType block, int x, int y, int z, int size, Direction face) {
         final ResourceLocation texture = block.texture(face);
-        final Optional<PackerFitPos> optionalOffset = atlas.getOffset(texture);
-        final Optional<PackerRegionSize> optionalSize;
         float u0, v0, u1, v1;
-        if (optionalOffset.isEmpty() || (optionalSize = atlas.getSize(texture)).isEmpty()) {
+        if (BlockRenderLayer.TEXTURE_ARRAY) {
+            // the texture repeats over the quad, a texture a block
+            final TextureArray array = Objects.requireNonNull(client.textureManager().getAsArray(TextureArray.BLOCK_ARRAY));
+            builder.layer(array.layerOf(texture));
             u0 = 0;
             v0 = 0;
-            u1 = 0;
-            v1 = 0;
+            u1 = size;
+            v1 = size;
         } else {
-            final PackerFitPos offset = optionalOffset.get();
-            final PackerRegionSize size = optionalSize.get();
-            u0 = atlas.normalizeU(offset.x());
-            v0 = atlas.normalizeV(offset.y());
-            u1 = atlas.normalizeU(offset.x() + size.width());
-            v1 = atlas.normalizeV(offset.y() + size.height());
+            final TextureAtlas atlas = Objects.requireNonNull(client.textureManager().getAsAtlas(TextureAtlas.BLOCK_ATLAS));
+            final TextureAtlas.Sprite sprite = atlas.getSprite(texture);
+            if (sprite == null) {
+                u0 = 0;
+                v0 = 0;
+                u1 = 0;
+                v1 = 0;
+            } else {
+                u0 = sprite.u0();
+                v0 = sprite.v0();
+                u1 = sprite.u1();
+                v1 = sprite.v1();
+            }
         }
         float x0 = (float) x;
         float y0 = (float) y;
         float z0 = (float) z;
-        float x1 = x0 + 1f;
-        float y1 = y0 + 1f;
-        float z1 = z0 + 1f;
+        float x1 = x0 + size;
+        float y1 = y0 + size;
+        float z1 = z0 + size;
         builder.indices(0, 1, 2, 2, 3, 0);
         builder.color(1f, 1f, 1f, 1f);
         switch (face) {
@@ -137,7 +146,7 @@ public final class BlockRenderer {
         final int by = y + face.axisY();
         final int bz = z + face.axisZ();
         if (world.isInBound(bx, by, bz)) {
-            return world.getBlock(bx, by, bz).air();
+            return BlockRenderLayers.isFaceVisible(block, world.getBlock(bx, by, bz));
         }
         return true;
     }
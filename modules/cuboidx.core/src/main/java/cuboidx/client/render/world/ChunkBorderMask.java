@@ -0,0 +1,140 @@
+/*
+ * cuboidx - A 3D sandbox game
+ * Copyright (C) 2023  XenFork Union
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package cuboidx.client.render.world;
+
+import cuboidx.util.math.Direction;
+import cuboidx.world.World;
+import cuboidx.world.chunk.Chunk;
+
+/**
+ * The opacity masks of the 6 border faces of a chunk.
+ * <p>
+ * Each face is a {@link Chunk#SIZE}&times;{@link Chunk#SIZE} bit set, where a set bit means the block on the border is opaque.
+ * The coordinates of a face are the two axes perpendicular to the face, in the order of x, y, z.
+ *
+ * @author squid233
+ * @since 0.1.0
+ */
+public final class ChunkBorderMask {
+    private static final int FACE_BITS = Chunk.SIZE * Chunk.SIZE;
+    private static final int FACE_LONGS = FACE_BITS / Long.SIZE;
+    private final long[] bits = new long[6 * FACE_LONGS];
+
+    private static int bitIndex(Direction face, int u, int v) {
+        return face.id() * FACE_BITS + v * Chunk.SIZE + u;
+    }
+
+    /**
+     * Rebuilds all faces of the given chunk from the world.
+     *
+     * @param chunk the chunk
+     */
+    public void rebuild(Chunk chunk) {
+        final World world = chunk.world();
+        for (int x = chunk.x0(); x <= chunk.x1(); x++) {
+            for (int y = chunk.y0(); y <= chunk.y1(); y++) {
+                for (int z = chunk.z0(); z <= chunk.z1(); z++) {
+                    if (x == chunk.x0() || x == chunk.x1() ||
+                        y == chunk.y0() || y == chunk.y1() ||
+                        z == chunk.z0() || z == chunk.z1()) {
+                        update(chunk, x, y, z, BlockRenderLayers.isOpaque(world.getBlock(x, y, z)));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Updates the opacity of the given block if it is on the border of the chunk.
+     *
+     * @param chunk  the chunk that contains the block
+     * @param x      the x of the block
+     * @param y      the y of the block
+     * @param z      the z of the block
+     * @param opaque the new opacity
+     * @return the bit set of the {@link Direction#id() ids} of the faces whose opacity changed
+     */
+    public int update(Chunk chunk, int x, int y, int z, boolean opaque) {
+        final int lx = x - chunk.x0();
+        final int ly = y - chunk.y0();
+        final int lz = z - chunk.z0();
+        int changed = 0;
+        if (x == chunk.x0() && set(Direction.WEST, ly, lz, opaque)) changed |= 1 << Direction.WEST.id();
+        if (x == chunk.x1() && set(Direction.EAST, ly, lz, opaque)) changed |= 1 << Direction.EAST.id();
+        if (y == chunk.y0() && set(Direction.DOWN, lx, lz, opaque)) changed |= 1 << Direction.DOWN.id();
+        if (y == chunk.y1() && set(Direction.UP, lx, lz, opaque)) changed |= 1 << Direction.UP.id();
+        if (z == chunk.z0() && set(Direction.NORTH, lx, ly, opaque)) changed |= 1 << Direction.NORTH.id();
+        if (z == chunk.z1() && set(Direction.SOUTH, lx, ly, opaque)) changed |= 1 << Direction.SOUTH.id();
+        return changed;
+    }
+
+    /**
+     * {@return the bit set of the {@link Direction#id() ids} of the border faces of the given chunk that contain the given block}
+     *
+     * @param chunk the chunk that contains the block
+     * @param x     the x of the block
+     * @param y     the y of the block
+     * @param z     the z of the block
+     */
+    public static int borderFaces(Chunk chunk, int x, int y, int z) {
+        return borderFaces(chunk, x, y, z, 1);
+    }
+
+    /**
+     * {@return the bit set of the {@link Direction#id() ids} of the faces of the given chunk
+     * within the given distance from the given block}
+     *
+     * @param chunk    the chunk that contains the block
+     * @param x        the x of the block
+     * @param y        the y of the block
+     * @param z        the z of the block
+     * @param distance the distance in blocks; {@code 1} for the faces that contain the block
+     */
+    public static int borderFaces(Chunk chunk, int x, int y, int z, int distance) {
+        int faces = 0;
+        if (x < chunk.x0() + distance) faces |= 1 << Direction.WEST.id();
+        if (x > chunk.x1() - distance) faces |= 1 << Direction.EAST.id();
+        if (y < chunk.y0() + distance) faces |= 1 << Direction.DOWN.id();
+        if (y > chunk.y1() - distance) faces |= 1 << Direction.UP.id();
+        if (z < chunk.z0() + distance) faces |= 1 << Direction.NORTH.id();
+        if (z > chunk.z1() - distance) faces |= 1 << Direction.SOUTH.id();
+        return faces;
+    }
+
+    private boolean set(Direction face, int u, int v, boolean opaque) {
+        final int index = bitIndex(face, u, v);
+        final long mask = 1L << index;
+        final long old = bits[index >>> 6];
+        final long value = opaque ? (old | mask) : (old & ~mask);
+        bits[index >>> 6] = value;
+        return value != old;
+    }
+
+    /**
+     * {@return {@code true} if the block at the given coordinates of the given face is opaque}
+     *
+     * @param face the face
+     * @param u    the first coordinate on the face
+     * @param v    the second coordinate on the face
+     */
+    public boolean isOpaque(Direction face, int u, int v) {
+        final int index = bitIndex(face, u, v);
+        return (bits[index >>> 6] & (1L << index)) != 0;
+    }
+}
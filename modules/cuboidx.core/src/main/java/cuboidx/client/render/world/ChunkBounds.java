@@ -0,0 +1,110 @@
+/*
+ * cuboidx - A 3D sandbox game
+ * Copyright (C) 2023  XenFork Union
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package cuboidx.client.render.world;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The bounding boxes of the chunks, stored as a struct of arrays.
+ * <p>
+ * The boxes are tested against the frustum in batches of {@value #BATCH_SIZE} with the vector API,
+ * and the result of a batch is a bit set in a {@code long}.
+ *
+ * @author squid233
+ * @since 0.1.0
+ */
+public final class ChunkBounds {
+    /**
+     * The count of the boxes tested in a batch.
+     */
+    public static final int BATCH_SIZE = Long.SIZE;
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+    private final float[] minX, minY, minZ;
+    private final float[] maxX, maxY, maxZ;
+
+    /**
+     * Creates the bounds.
+     *
+     * @param batchCount the count of the batches
+     */
+    public ChunkBounds(int batchCount) {
+        final int size = batchCount * BATCH_SIZE;
+        this.minX = new float[size];
+        this.minY = new float[size];
+        this.minZ = new float[size];
+        this.maxX = new float[size];
+        this.maxY = new float[size];
+        this.maxZ = new float[size];
+    }
+
+    /**
+     * Sets the box at the given index.
+     *
+     * @param index the index
+     * @param minX  the minimum x
+     * @param minY  the minimum y
+     * @param minZ  the minimum z
+     * @param maxX  the maximum x
+     * @param maxY  the maximum y
+     * @param maxZ  the maximum z
+     */
+    public void set(int index, float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+        this.minX[index] = minX;
+        this.minY[index] = minY;
+        this.minZ[index] = minZ;
+        this.maxX[index] = maxX;
+        this.maxY[index] = maxY;
+        this.maxZ[index] = maxZ;
+    }
+
+    /**
+     * Tests the boxes of a batch against the planes of a frustum.
+     * A box is outside if it is entirely on the negative side of any plane.
+     *
+     * @param batch  the index of the batch
+     * @param planes the normalized plane equations, 4 floats {@code (a, b, c, d)} for each of the 6 planes
+     * @return the bit set of the boxes inside or intersecting the frustum
+     */
+    public long testFrustum(int batch, float[] planes) {
+        final int offset = batch * BATCH_SIZE;
+        final int step = SPECIES.length();
+        long result = 0L;
+        for (int i = 0; i < BATCH_SIZE; i += step) {
+            final int index = offset + i;
+            VectorMask<Float> inside = SPECIES.maskAll(true);
+            for (int p = 0; p < 24; p += 4) {
+                final float a = planes[p];
+                final float b = planes[p + 1];
+                final float c = planes[p + 2];
+                final float d = planes[p + 3];
+                // the corner furthest along the normal
+                final FloatVector x = FloatVector.fromArray(SPECIES, a < 0 ? minX : maxX, index);
+                final FloatVector y = FloatVector.fromArray(SPECIES, b < 0 ? minY : maxY, index);
+                final FloatVector z = FloatVector.fromArray(SPECIES, c < 0 ? minZ : maxZ, index);
+                final FloatVector distance = x.mul(a).add(y.mul(b)).add(z.mul(c));
+                inside = inside.and(distance.compare(VectorOperators.GE, -d));
+            }
+            result |= inside.toLong() << i;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ * cuboidx - A 3D sandbox game
+ * Copyright (C) 2023  XenFork Union
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package cuboidx.client.render.world;
+
+import cuboidx.client.gl.GLBufferArena;
+import cuboidx.client.gl.GLStateMgr;
+import cuboidx.client.gl.RenderSystem;
+import overrungl.opengl.GL;
+import overrungl.opengl.GLLoader;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+
+/**
+ * The chunk buffer arena holds the meshes of all chunks of a render layer
+ * in a single vertex buffer and a single index buffer, which are bound to a single vertex array.
+ * <p>
+ * The chunks suballocate their slabs from the {@link GLBufferArena arenas},
+ * and the visible slabs are collected with {@link #addDraw(int, long, int)} and drawn with a single multi-draw call:
+ * {@code glMultiDrawElementsIndirect} if {@code ARB_multi_draw_indirect} is supported,
+ * otherwise {@code glMultiDrawElementsBaseVertex}.
+ * The arenas are compacted a little every frame while they are fragmented.
+ * When an arena grows into a new buffer, the vertex array binds it before the next draw.
+ * All methods must be called from the render thread.
+ *
+ * @author squid233
+ * @since 0.1.0
+ */
+public final class ChunkBufferArena implements AutoCloseable {
+    /**
+     * The default initial count of the vertices.
+     */
+    public static final long DEFAULT_VERTEX_CAPACITY = 1024 * 1024;
+    /**
+     * The size of {@code DrawElementsIndirectCommand}: count, instanceCount, firstIndex, baseVertex and baseInstance.
+     */
+    private static final long INDIRECT_COMMAND_SIZE = 5 * Integer.BYTES;
+    /**
+     * The fragmentation above which the arenas are compacted.
+     */
+    private static final double COMPACT_FRAGMENTATION = 0.5;
+    private static final long COMPACT_BYTES_PER_FRAME = 512 * 1024;
+    private final BlockRenderLayer layer;
+    private final GLBufferArena vertexArena;
+    private final GLBufferArena indexArena;
+    private final int vao;
+    private int boundVertexBuffer;
+    private int boundIndexBuffer;
+    private final int maxDraws;
+    private final boolean indirect;
+    private final int indirectBuffer;
+    private final Arena arena = Arena.ofShared();
+    private final MemorySegment counts;
+    private final MemorySegment indices;
+    private final MemorySegment baseVertices;
+    private final MemorySegment commands;
+    private int drawCount = 0;
+
+    /**
+     * Creates the chunk buffer arena.
+     *
+     * @param layer          the render layer
+     * @param vertexCapacity the initial count of the vertices; the arenas grow as needed
+     * @param maxDraws       the maximum count of the draws in a frame
+     */
+    public ChunkBufferArena(BlockRenderLayer layer, long vertexCapacity, int maxDraws) {
+        this.layer = layer;
+        this.maxDraws = maxDraws;
+        this.vertexArena = new GLBufferArena("chunk vertices", layer.layout().stride(), vertexCapacity);
+        this.indexArena = new GLBufferArena("chunk indices", Integer.BYTES, vertexCapacity / 4 * 6);
+        this.indirect = GLLoader.getExtCapabilities().GL_ARB_multi_draw_indirect;
+
+        this.vao = GL.genVertexArray();
+        final int vertexArrayBinding = GLStateMgr.vertexArrayBinding();
+        RenderSystem.bindVertexArray(vao);
+        bindBuffers();
+        RenderSystem.bindVertexArray(vertexArrayBinding);
+
+        if (indirect) {
+            this.indirectBuffer = GL.genBuffer();
+            this.commands = arena.allocate(INDIRECT_COMMAND_SIZE * maxDraws, Integer.BYTES);
+            this.counts = MemorySegment.NULL;
+            this.indices = MemorySegment.NULL;
+            this.baseVertices = MemorySegment.NULL;
+        } else {
+            this.indirectBuffer = 0;
+            this.commands = MemorySegment.NULL;
+            this.counts = arena.allocateArray(ValueLayout.JAVA_INT, maxDraws);
+            this.indices = arena.allocateArray(ValueLayout.ADDRESS, maxDraws);
+            this.baseVertices = arena.allocateArray(ValueLayout.JAVA_INT, maxDraws);
+        }
+    }
+
+    /**
+     * Binds the buffers of the arenas to the vertex array, which must be bound.
+     */
+    private void bindBuffers() {
+        final int arrayBufferBinding = GLStateMgr.arrayBufferBinding();
+        boundVertexBuffer = vertexArena.id();
+        boundIndexBuffer = indexArena.id();
+        RenderSystem.bindArrayBuffer(boundVertexBuffer);
+        layer.layout().specifyAttributes();
+        GL.bindBuffer(GL.ELEMENT_ARRAY_BUFFER, boundIndexBuffer);
+        RenderSystem.bindArrayBuffer(arrayBufferBinding);
+    }
+
+    /**
+     * Allocates vertices.
+     *
+     * @param count the count of the vertices
+     * @return the allocation, whose offset is in vertices
+     */
+    public GLBufferArena.Allocation allocateVertices(int count) {
+        return vertexArena.allocate(count);
+    }
+
+    /**
+     * Allocates indices.
+     *
+     * @param count the count of the indices
+     * @return the allocation, whose offset is in indices
+     */
+    public GLBufferArena.Allocation allocateIndices(int count) {
+        return indexArena.allocate(count);
+    }
+
+    public void freeVertices(GLBufferArena.Allocation allocation) {
+        vertexArena.free(allocation);
+    }
+
+    public void freeIndices(GLBufferArena.Allocation allocation) {
+        indexArena.free(allocation);
+    }
+
+    /**
+     * Advances a frame of the arenas, and compacts them if they are fragmented.
+     * This must be called before adding the draws of the frame, since compaction moves the allocations.
+     */
+    public void nextFrame() {
+        nextFrame(vertexArena);
+        nextFrame(indexArena);
+    }
+
+    private static void nextFrame(GLBufferArena arena) {
+        arena.nextFrame();
+        if (arena.fragmentation() > COMPACT_FRAGMENTATION) {
+            arena.compact(COMPACT_BYTES_PER_FRAME);
+        }
+    }
+
+    /**
+     * Clears the draws of the last frame.
+     */
+    public void clearDraws() {
+        drawCount = 0;
+    }
+
+    /**
+     * Adds a draw.
+     *
+     * @param indexCount the count of the indices
+     * @param firstIndex the offset in indices of the first index
+     * @param baseVertex the value added to each index
+     */
+    public void addDraw(int indexCount, long firstIndex, int baseVertex) {
+        if (drawCount >= maxDraws) return;
+        final int i = drawCount;
+        if (indirect) {
+            final long offset = i * INDIRECT_COMMAND_SIZE;
+            commands.set(ValueLayout.JAVA_INT, offset, indexCount);
+            commands.set(ValueLayout.JAVA_INT, offset + 4, 1);
+            commands.set(ValueLayout.JAVA_INT, offset + 8, (int) firstIndex);
+            commands.set(ValueLayout.JAVA_INT, offset + 12, baseVertex);
+            commands.set(ValueLayout.JAVA_INT, offset + 16, 0);
+        } else {
+            counts.setAtIndex(ValueLayout.JAVA_INT, i, indexCount);
+            indices.setAtIndex(ValueLayout.ADDRESS, i, MemorySegment.ofAddress(firstIndex << 2));
+            baseVertices.setAtIndex(ValueLayout.JAVA_INT, i, baseVertex);
+        }
+        drawCount++;
+    }
+
+    /**
+     * Draws all added draws with a single call.
+     */
+    public void draw() {
+        if (drawCount == 0) return;
+        final int vertexArrayBinding = GLStateMgr.vertexArrayBinding();
+        RenderSystem.bindVertexArray(vao);
+        // the arenas have grown into new buffers
+        if (vertexArena.id() != boundVertexBuffer || indexArena.id() != boundIndexBuffer) {
+            bindBuffers();
+        }
+        if (indirect) {
+            GL.bindBuffer(GL.DRAW_INDIRECT_BUFFER, indirectBuffer);
+            // orphan the commands of the last frame
+            GL.bufferData(GL.DRAW_INDIRECT_BUFFER, commands.asSlice(0, drawCount * INDIRECT_COMMAND_SIZE), GL.STREAM_DRAW);
+            GL.multiDrawElementsIndirect(GL.TRIANGLES, GL.UNSIGNED_INT, MemorySegment.NULL, drawCount, 0);
+            GL.bindBuffer(GL.DRAW_INDIRECT_BUFFER, 0);
+        } else {
+            GL.multiDrawElementsBaseVertex(GL.TRIANGLES, counts, GL.UNSIGNED_INT, indices, drawCount, baseVertices);
+        }
+        RenderSystem.bindVertexArray(vertexArrayBinding);
+    }
+
+    public BlockRenderLayer layer() {
+        return layer;
+    }
+
+    public int vertexBuffer() {
+        return vertexArena.id();
+    }
+
+    public int indexBuffer() {
+        return indexArena.id();
+    }
+
+    public int drawCount() {
+        return drawCount;
+    }
+
+    @Override
+    public void close() {
+        RenderSystem.deleteVertexArray(vao);
+        vertexArena.close();
+        indexArena.close();
+        if (indirectBuffer != 0) GL.deleteBuffer(indirectBuffer);
+        arena.close();
+    }
+}
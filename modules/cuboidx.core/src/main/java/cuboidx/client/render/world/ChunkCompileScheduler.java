@@ -0,0 +1,197 @@
+/*
+ * cuboidx - A 3D sandbox game
+ * Copyright (C) 2023  XenFork Union
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package cuboidx.client.render.world;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The compile scheduler runs chunk compilations on a fixed count of worker threads.
+ * <p>
+ * Tasks are taken in the order of their priority; see {@link ClientChunk#priority}.
+ * There is at most one queued task per chunk: submitting a chunk that is still queued does nothing,
+ * and submitting a chunk that is being compiled queues a new task for the slots dirtied since,
+ * while the running task still finishes. The meshes of an older compilation are dropped by their version once uploaded.
+ * <p>
+ * The workers stop taking new tasks while the {@link ChunkUploadQueue upload queue} is full,
+ * which bounds the memory held by compiled meshes.
+ *
+ * @author squid233
+ * @since 0.1.0
+ */
+public final class ChunkCompileScheduler implements AutoCloseable {
+    private static final Logger logger = LogManager.getLogger();
+    private static final long BACKPRESSURE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private final ChunkCompiler compiler;
+    private final ChunkUploadQueue uploadQueue;
+    private final int maxPendingUploads;
+    private final PriorityBlockingQueue<Task> queue = new PriorityBlockingQueue<>(64,
+        Comparator.comparingDouble(Task::priority).thenComparingLong(Task::sequence));
+    private final Map<ClientChunk, Task> tasks = new ConcurrentHashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private final Thread[] workers;
+    private volatile boolean running = true;
+
+    public ChunkCompileScheduler(ChunkCompiler compiler, ChunkUploadQueue uploadQueue, int workerCount, int maxPendingUploads) {
+        this.compiler = compiler;
+        this.uploadQueue = uploadQueue;
+        this.maxPendingUploads = maxPendingUploads;
+        this.workers = new Thread[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            final Thread thread = new Thread(this::work, STR."Chunk-worker-thread-\{i + 1}");
+            thread.setDaemon(true);
+            workers[i] = thread;
+            thread.start();
+        }
+    }
+
+    /**
+     * A compile task.
+     *
+     * @author squid233
+     * @since 0.1.0
+     */
+    private static final class Task {
+        private final ClientChunk chunk;
+        private final double priority;
+        private final long sequence;
+        private volatile boolean started = false;
+        private volatile boolean cancelled = false;
+
+        private Task(ClientChunk chunk, double priority, long sequence) {
+            this.chunk = chunk;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        double priority() {
+            return priority;
+        }
+
+        long sequence() {
+            return sequence;
+        }
+
+        boolean cancelled() {
+            return cancelled;
+        }
+    }
+
+    /**
+     * Submits a chunk to compile.
+     *
+     * @param chunk    the chunk
+     * @param priority the priority; a lower value is more urgent
+     */
+    public void submit(ClientChunk chunk, double priority) {
+        if (!running) return;
+        final Task task = new Task(chunk, priority, sequence.getAndIncrement());
+        // the queued task will read the latest blocks; only the task installed is queued
+        if (tasks.compute(chunk, (key, current) -> current != null && !current.started ? current : task) == task) {
+            queue.offer(task);
+        }
+    }
+
+    /**
+     * Cancels the task of the given chunk, for example when the chunk is released as empty.
+     * The slots taken by a running task are dropped, not compiled again.
+     *
+     * @param chunk the chunk
+     */
+    public void cancel(ClientChunk chunk) {
+        final Task task = tasks.remove(chunk);
+        if (task != null) task.cancelled = true;
+    }
+
+    /**
+     * {@return {@code true} if the given chunk is queued or compiling}
+     */
+    public boolean isScheduled(ClientChunk chunk) {
+        return tasks.containsKey(chunk);
+    }
+
+    private void work() {
+        while (running) {
+            final Task task;
+            try {
+                while (running && uploadQueue.size() >= maxPendingUploads) {
+                    LockSupport.parkNanos(BACKPRESSURE_PARK_NANOS);
+                }
+                task = queue.take();
+            } catch (InterruptedException e) {
+                break;
+            }
+            if (task.cancelled) continue;
+            task.started = true;
+            final ClientChunk chunk = task.chunk;
+            int slots = 0;
+            try {
+                // edits from now on dirty the chunk again and queue another task
+                slots = chunk.takeDirtySlots();
+                final boolean resort = chunk.takeResortRequest();
+                // the level changed since the submission, and the slots of the new level are clean
+                if (slots == 0 && !resort) continue;
+                final List<ChunkMesh> meshes = chunk.compile(compiler, slots, resort, task::cancelled);
+                if (task.cancelled) {
+                    // the chunk has been released, since it has nothing to draw
+                    meshes.forEach(ChunkMesh::close);
+                } else {
+                    meshes.forEach(chunk.states()::addPendingMesh);
+                    uploadQueue.offer(chunk);
+                }
+            } catch (Exception e) {
+                logger.error("Failed to compile the chunk", e);
+                // the meshes are closed by the chunk; the slots are compiled again with the next edit, not in a loop
+                chunk.markFailed(slots);
+            } finally {
+                tasks.remove(chunk, task);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+        for (Thread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        for (Task task : tasks.values()) {
+            task.cancelled = true;
+        }
+        tasks.clear();
+        queue.clear();
+    }
+}
@@ -18,33 +18,119 @@
 
 package cuboidx.client.render.world;
 
+import cuboidx.client.gl.GLDrawMode;
+import cuboidx.client.gl.GLStagingBuffer;
 import cuboidx.client.render.BufferedVertexBuilder;
+import cuboidx.client.render.BuiltBuffer;
+import org.jetbrains.annotations.Nullable;
 import org.overrun.pooling.KeyedObjectPool;
 import org.overrun.pooling.KeyedPool;
 import org.overrun.pooling.KeyedPoolObjectState;
 
+import java.util.List;
+import java.util.function.Function;
+
 /**
+ * The chunk compiler provides the builders to compile chunks.
+ * The builders are pooled by {@link BlockRenderLayer render layer}, so each layer has its own builders.
+ * <p>
+ * If a {@link GLStagingBuffer staging buffer} is present, the builders write directly into its mapped memory,
+ * and are returned right after compiling;
+ * otherwise the {@link ChunkMesh mesh} holds the builder until it is uploaded.
+ *
  * @author squid233
  * @since 0.1.0
  */
-// TODO: 2023/7/8 Multithreading
 public final class ChunkCompiler implements AutoCloseable {
     private final KeyedPool<BlockRenderLayer, BufferedVertexBuilder> pool = new KeyedObjectPool<>(
         layer -> new BufferedVertexBuilder(layer.layout(), layer.verticesSize(), layer.indicesSize()),
         BufferedVertexBuilder::close,
         1,
         8);
+    private final @Nullable GLStagingBuffer stagingBuffer;
+
+    /**
+     * Creates the chunk compiler. Must be called from the render thread.
+     *
+     * @param stagingRegionCount the count of the staging regions; {@code 0} to disable staging
+     */
+    public ChunkCompiler(int stagingRegionCount) {
+        if (stagingRegionCount > 0 && GLStagingBuffer.isSupported()) {
+            long regionSize = 0;
+            for (BlockRenderLayer layer : BlockRenderLayer.list()) {
+                regionSize = Math.max(regionSize, stagingRegionSize(layer));
+            }
+            this.stagingBuffer = GLStagingBuffer.create(regionSize, stagingRegionCount);
+        } else {
+            this.stagingBuffer = null;
+        }
+    }
+
+    private static long vertexDataSize(BlockRenderLayer layer) {
+        return (long) layer.layout().stride() * layer.verticesSize();
+    }
 
-    public KeyedPoolObjectState<BlockRenderLayer, BufferedVertexBuilder> borrow(BlockRenderLayer layer) {
+    private static long stagingRegionSize(BlockRenderLayer layer) {
+        return vertexDataSize(layer) + ((long) layer.indicesSize() << 2);
+    }
+
+    public synchronized KeyedPoolObjectState<BlockRenderLayer, BufferedVertexBuilder> borrow(BlockRenderLayer layer) {
         return pool.borrow(layer).state();
     }
 
-    public void returning(KeyedPoolObjectState<BlockRenderLayer, BufferedVertexBuilder> builder) {
+    public synchronized void returning(KeyedPoolObjectState<BlockRenderLayer, BufferedVertexBuilder> builder) {
         pool.returning(builder);
     }
 
+    /**
+     * Builds a mesh.
+     *
+     * @param layer   the render layer
+     * @param version the version of the mesh
+     * @param emitter the action that emits the vertices and returns the sections emitted
+     * @return the mesh
+     */
+    public ChunkMesh compile(BlockRenderLayer layer,
+                             long version,
+                             Function<BufferedVertexBuilder, List<ChunkMesh.Section>> emitter) {
+        final var state = borrow(layer);
+        final BufferedVertexBuilder builder = state.get();
+        final GLStagingBuffer.Region region = stagingBuffer != null ? stagingBuffer.acquire() : null;
+        if (region != null) {
+            final long vertexDataSize = vertexDataSize(layer);
+            builder.begin(GLDrawMode.TRIANGLES,
+                region.segment().asSlice(0, vertexDataSize),
+                region.segment().asSlice(vertexDataSize));
+        } else {
+            builder.begin(GLDrawMode.TRIANGLES);
+        }
+        final List<ChunkMesh.Section> sections;
+        final BuiltBuffer buffer;
+        try {
+            sections = emitter.apply(builder);
+            buffer = builder.end();
+        } catch (RuntimeException e) {
+            returning(state);
+            if (region != null) stagingBuffer.release(region);
+            throw e;
+        }
+        if (region == null) {
+            return new ChunkMesh(this, layer, state, null, null, buffer, sections, version);
+        }
+        returning(state);
+        return new ChunkMesh(this, layer, null, stagingBuffer, region, buffer, sections, version);
+    }
+
+    /**
+     * Frees the staging regions that have been consumed by the GPU. Must be called from the render thread.
+     */
+    public void pollStaging() {
+        if (stagingBuffer != null) stagingBuffer.poll();
+    }
+
     @Override
-    public void close() {
+    public synchronized void close() {
         pool.cleanup();
+        if (stagingBuffer != null) stagingBuffer.close();
     }
 }
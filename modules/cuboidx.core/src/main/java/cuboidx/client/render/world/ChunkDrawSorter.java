@@ -0,0 +1,124 @@
+/*
+ * cuboidx - A 3D sandbox game
+ * Copyright (C) 2023  XenFork Union
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package cuboidx.client.render.world;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The draw sorter orders the visible chunks front-to-back, so that the near chunks fill the depth buffer first
+ * and the early depth test rejects the fragments of the far chunks hidden by them.
+ * <p>
+ * The order of the last frame is kept: the chunks no longer visible are removed, the newly visible chunks are appended,
+ * and the order is fixed by an insertion sort, which is linear when the camera moves a little.
+ * If many chunks become visible at once, such as after a teleport, a full sort is used instead.
+ * The sorter is not thread-safe; all methods must be called from the same thread.
+ *
+ * @author squid233
+ * @since 0.1.0
+ */
+public final class ChunkDrawSorter {
+    private static final int MAX_INSERTIONS = 64;
+    private final int xChunks, zChunks;
+    private final int[] visibleFrames;
+    private final boolean[] ordered;
+    private final double[] distances;
+    private final List<ClientChunk> order;
+    private final Comparator<ClientChunk> comparator;
+    private int frame = 0;
+
+    /**
+     * Creates the sorter.
+     *
+     * @param chunkCount the count of the chunks
+     * @param xChunks    the count of the chunks on the x-axis
+     * @param zChunks    the count of the chunks on the z-axis
+     */
+    public ChunkDrawSorter(int chunkCount, int xChunks, int zChunks) {
+        this.xChunks = xChunks;
+        this.zChunks = zChunks;
+        this.visibleFrames = new int[chunkCount];
+        this.ordered = new boolean[chunkCount];
+        this.distances = new double[chunkCount];
+        this.order = new ArrayList<>(chunkCount);
+        this.comparator = Comparator.comparingDouble(chunk -> distances[indexOf(chunk)]);
+    }
+
+    private int indexOf(ClientChunk chunk) {
+        return xChunks * ((int) chunk.y() * zChunks + (int) chunk.z()) + (int) chunk.x();
+    }
+
+    /**
+     * Sorts the visible chunks by the distance to the camera.
+     *
+     * @param visibleChunks the visible chunks
+     * @param x             the x position of the camera
+     * @param y             the y position of the camera
+     * @param z             the z position of the camera
+     * @return the visible chunks, from the nearest to the farthest. The list is reused by the next call
+     */
+    public List<ClientChunk> sort(List<ClientChunk> visibleChunks, double x, double y, double z) {
+        frame++;
+        for (ClientChunk chunk : visibleChunks) {
+            visibleFrames[indexOf(chunk)] = frame;
+        }
+
+        // remove the chunks no longer visible, keeping the order
+        int size = 0;
+        for (int i = 0, count = order.size(); i < count; i++) {
+            final ClientChunk chunk = order.get(i);
+            final int index = indexOf(chunk);
+            if (visibleFrames[index] == frame) {
+                distances[index] = chunk.distanceSqr(x, y, z);
+                order.set(size++, chunk);
+            } else {
+                ordered[index] = false;
+            }
+        }
+        order.subList(size, order.size()).clear();
+
+        int insertions = 0;
+        for (ClientChunk chunk : visibleChunks) {
+            final int index = indexOf(chunk);
+            if (!ordered[index]) {
+                ordered[index] = true;
+                distances[index] = chunk.distanceSqr(x, y, z);
+                order.add(chunk);
+                insertions++;
+            }
+        }
+
+        if (insertions > MAX_INSERTIONS) {
+            order.sort(comparator);
+        } else {
+            for (int i = 1, count = order.size(); i < count; i++) {
+                final ClientChunk chunk = order.get(i);
+                final double distance = distances[indexOf(chunk)];
+                int j = i - 1;
+                while (j >= 0 && distances[indexOf(order.get(j))] > distance) {
+                    order.set(j + 1, order.get(j));
+                    j--;
+                }
+                order.set(j + 1, chunk);
+            }
+        }
+        return order;
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * cuboidx - A 3D sandbox game
+ * Copyright (C) 2023  XenFork Union
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package cuboidx.client.render.world;
+
+import cuboidx.client.render.RenderCommandList;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.joml.Matrix4f;
+import org.joml.Matrix4fc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The frame preparer culls and sorts the chunks of a frame on a worker thread, and records their draws
+ * into a {@link RenderCommandList command list}, which the render thread then submits.
+ * <p>
+ * The render thread {@link #prepare(double, double, double, Matrix4fc) starts} the preparation as soon as the camera is set up,
+ * goes on with the compilations and the uploads of the frame, and {@link #await() takes} the prepared frame before drawing.
+ * The frame is prepared with the camera of the same frame, so the culling never lags behind the camera.
+ * <p>
+ * Each visible chunk has a packet for each {@link BlockRenderLayer layer}, whose state key is the {@link BlockRenderLayer#id() id}
+ * of the layer. The opaque and cutout packets are recorded from near to far, and the translucent packets from far to near,
+ * and the sorted list keeps that order within each layer.
+ * The packets do not carry the ranges in the arenas, since the arenas are compacted by the render thread;
+ * the ranges are resolved when the packets are submitted.
+ * <p>
+ * The {@link ChunkFrustumCuller frustum culler}, the {@link ChunkOcclusionCuller occlusion culler}
+ * and the {@link ChunkDrawSorter draw sorter} are owned by the worker thread.
+ *
+ * @author squid233
+ * @since 0.1.0
+ */
+public final class ChunkFramePreparer implements AutoCloseable {
+    private static final Logger logger = LogManager.getLogger();
+    private static final long CLOSE_TIMEOUT_SECONDS = 5;
+    private final ChunkFrustumCuller frustumCuller;
+    private final ChunkOcclusionCuller occlusionCuller;
+    private final ChunkDrawSorter drawSorter;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(
+        Thread.ofPlatform().name("Chunk-frame-preparer").daemon().factory());
+    private final Matrix4f projectionView = new Matrix4f();
+    private final Frame frame = new Frame(new ArrayList<>(), new RenderCommandList());
+    private Future<Frame> pending = null;
+
+    /**
+     * A prepared frame. It is reused by the next preparation.
+     *
+     * @param chunks   the visible chunks, from the nearest to the farthest
+     * @param commands the draws, whose targets are the indices in {@code chunks}
+     * @author squid233
+     * @since 0.1.0
+     */
+    public record Frame(List<ClientChunk> chunks, RenderCommandList commands) {
+    }
+
+    /**
+     * Creates the frame preparer.
+     *
+     * @param chunks  the chunks, indexed by {@code xChunks * (y * zChunks + z) + x}
+     * @param xChunks the count of the chunks on the x-axis
+     * @param yChunks the count of the chunks on the y-axis
+     * @param zChunks the count of the chunks on the z-axis
+     * @param width   the width of the world in blocks
+     * @param height  the height of the world in blocks
+     * @param depth   the depth of the world in blocks
+     */
+    public ChunkFramePreparer(ClientChunk[] chunks, int xChunks, int yChunks, int zChunks, int width, int height, int depth) {
+        this.frustumCuller = new ChunkFrustumCuller(chunks, width, height, depth);
+        this.occlusionCuller = new ChunkOcclusionCuller(chunks, xChunks, yChunks, zChunks, frustumCuller);
+        this.drawSorter = new ChunkDrawSorter(chunks.length, xChunks, zChunks);
+    }
+
+    /**
+     * Starts preparing a frame. Must be called from the render thread, and followed by {@link #await()}.
+     *
+     * @param x              the x position of the camera
+     * @param y              the y position of the camera
+     * @param z              the z position of the camera
+     * @param projectionView the projection-view matrix of the camera, which is copied
+     */
+    public void prepare(double x, double y, double z, Matrix4fc projectionView) {
+        if (pending != null) {
+            logger.warn("Calling .prepare while preparing; ignoring");
+            return;
+        }
+        this.projectionView.set(projectionView);
+        pending = executor.submit(() -> prepare(x, y, z));
+    }
+
+    private Frame prepare(double x, double y, double z) {
+        frustumCuller.update(projectionView);
+        final List<ClientChunk> sortedChunks = drawSorter.sort(occlusionCuller.cull(x, y, z), x, y, z);
+        final List<ClientChunk> chunks = frame.chunks();
+        final RenderCommandList commands = frame.commands();
+        chunks.clear();
+        commands.clear();
+        chunks.addAll(sortedChunks);
+        // front-to-back for the early depth test
+        for (int i = 0, size = chunks.size(); i < size; i++) {
+            commands.add(BlockRenderLayer.OPAQUE.id(), i);
+            commands.add(BlockRenderLayer.CUTOUT.id(), i);
+        }
+        // back-to-front for blending
+        for (int i = chunks.size() - 1; i >= 0; i--) {
+            commands.add(BlockRenderLayer.TRANSLUCENT.id(), i);
+        }
+        commands.sort();
+        return frame;
+    }
+
+    /**
+     * Waits for the frame being prepared. Must be called from the render thread.
+     *
+     * @return the prepared frame, or an empty frame if the preparation failed
+     */
+    public Frame await() {
+        final Future<Frame> future = pending;
+        pending = null;
+        if (future != null) {
+            try {
+                return future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                logger.error("Failed to prepare the frame", e.getCause());
+            }
+        }
+        frame.chunks().clear();
+        frame.commands().clear();
+        return frame;
+    }
+
+    /**
+     * Stops the worker thread, and waits for the preparation still running,
+     * so that the chunks and the arenas can be closed after this.
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        try {
+            if (!executor.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                logger.warn("The frame preparation didn't finish in {} seconds", CLOSE_TIMEOUT_SECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
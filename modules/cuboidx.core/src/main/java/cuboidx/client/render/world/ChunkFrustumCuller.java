@@ -0,0 +1,154 @@
+/*
+ * cuboidx - A 3D sandbox game
+ * Copyright (C) 2023  XenFork Union
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package cuboidx.client.render.world;
+
+import cuboidx.world.chunk.Chunk;
+import org.joml.FrustumIntersection;
+import org.joml.Matrix4fc;
+import org.joml.Vector4f;
+
+/**
+ * The frustum culler groups the chunks into regions of {@value #REGION_SIZE}&times;{@value #REGION_SIZE}&times;{@value #REGION_SIZE} chunks.
+ * <p>
+ * A region is tested against the frustum once per frame, when one of its chunks is tested for the first time.
+ * The chunks in a region outside the frustum are rejected, and the chunks in a region inside the frustum are accepted,
+ * both without testing each chunk.
+ * The chunks in a region intersecting the frustum are tested together against the planes of the frustum,
+ * with their {@link ChunkBounds bounds} laid out by region, a region a batch.
+ *
+ * @author squid233
+ * @since 0.1.0
+ */
+public final class ChunkFrustumCuller {
+    /**
+     * The count of the chunks on each axis of a region.
+     */
+    public static final int REGION_SIZE = 4;
+    private static final int REGION_BLOCKS = REGION_SIZE * Chunk.SIZE;
+    private final int width, height, depth;
+    private final int xRegions, yRegions, zRegions;
+    private final int[] regionResults;
+    private final int[] regionFrames;
+    private final long[] regionMasks;
+    private final ChunkBounds bounds;
+    private final float[] planes = new float[24];
+    private final FrustumIntersection frustum = new FrustumIntersection();
+    private final Vector4f plane = new Vector4f();
+    private int frame = 0;
+
+    /**
+     * Creates the culler.
+     *
+     * @param chunks the chunks
+     * @param width  the width of the world in blocks
+     * @param height the height of the world in blocks
+     * @param depth  the depth of the world in blocks
+     */
+    public ChunkFrustumCuller(ClientChunk[] chunks, int width, int height, int depth) {
+        this.width = width;
+        this.height = height;
+        this.depth = depth;
+        this.xRegions = Math.ceilDiv(width, REGION_BLOCKS);
+        this.yRegions = Math.ceilDiv(height, REGION_BLOCKS);
+        this.zRegions = Math.ceilDiv(depth, REGION_BLOCKS);
+        this.regionResults = new int[xRegions * yRegions * zRegions];
+        this.regionFrames = new int[regionResults.length];
+        this.regionMasks = new long[regionResults.length];
+        this.bounds = new ChunkBounds(regionResults.length);
+        for (ClientChunk chunk : chunks) {
+            bounds.set(boundsIndex(chunk),
+                chunk.x0(), chunk.y0(), chunk.z0(),
+                chunk.x1() + 1, chunk.y1() + 1, chunk.z1() + 1);
+        }
+    }
+
+    private int regionIndex(ClientChunk chunk) {
+        final int rx = (int) chunk.x() / REGION_SIZE;
+        final int ry = (int) chunk.y() / REGION_SIZE;
+        final int rz = (int) chunk.z() / REGION_SIZE;
+        return xRegions * (ry * zRegions + rz) + rx;
+    }
+
+    private static int indexInRegion(ClientChunk chunk) {
+        final int lx = (int) chunk.x() % REGION_SIZE;
+        final int ly = (int) chunk.y() % REGION_SIZE;
+        final int lz = (int) chunk.z() % REGION_SIZE;
+        return (ly * REGION_SIZE + lz) * REGION_SIZE + lx;
+    }
+
+    private int boundsIndex(ClientChunk chunk) {
+        // a region of 4x4x4 chunks fills a batch
+        return regionIndex(chunk) * ChunkBounds.BATCH_SIZE + indexInRegion(chunk);
+    }
+
+    /**
+     * Begins a frame with the frustum of the given matrix. The results of the regions of the last frame are discarded.
+     * The culler keeps its own copy of the frustum, so it can be used from a thread other than the render thread,
+     * but only from one thread at a time.
+     *
+     * @param projectionView the projection-view matrix
+     */
+    public void update(Matrix4fc projectionView) {
+        frustum.set(projectionView);
+        for (int i = 0; i < 6; i++) {
+            projectionView.frustumPlane(i, plane);
+            planes[i * 4] = plane.x();
+            planes[i * 4 + 1] = plane.y();
+            planes[i * 4 + 2] = plane.z();
+            planes[i * 4 + 3] = plane.w();
+        }
+        frame++;
+    }
+
+    private int testRegion(int index) {
+        final int rx = index % xRegions;
+        final int rz = (index / xRegions) % zRegions;
+        final int ry = index / (xRegions * zRegions);
+        final int x0 = rx * REGION_BLOCKS;
+        final int y0 = ry * REGION_BLOCKS;
+        final int z0 = rz * REGION_BLOCKS;
+        return frustum.intersectAab(x0, y0, z0,
+            Math.min(x0 + REGION_BLOCKS, width),
+            Math.min(y0 + REGION_BLOCKS, height),
+            Math.min(z0 + REGION_BLOCKS, depth));
+    }
+
+    /**
+     * {@return {@code true} if the given chunk is in the frustum} Must be called from the thread that updates this culler.
+     *
+     * @param chunk the chunk
+     */
+    public boolean isVisible(ClientChunk chunk) {
+        final int index = regionIndex(chunk);
+        if (regionFrames[index] != frame) {
+            final int result = testRegion(index);
+            if (result == FrustumIntersection.INTERSECT) {
+                regionMasks[index] = bounds.testFrustum(index, planes);
+            }
+            regionResults[index] = result;
+            regionFrames[index] = frame;
+        }
+        return switch (regionResults[index]) {
+            case FrustumIntersection.INSIDE -> true;
+            case FrustumIntersection.INTERSECT -> (regionMasks[index] & (1L << indexInRegion(chunk))) != 0;
+            // one of the planes rejects the whole region
+            default -> false;
+        };
+    }
+}
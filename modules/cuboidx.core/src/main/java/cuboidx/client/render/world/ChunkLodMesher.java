@@ -0,0 +1,189 @@
+/*
+ * cuboidx - A 3D sandbox game
+ * Copyright (C) 2023  XenFork Union
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package cuboidx.client.render.world;
+
+import cuboidx.client.render.VertexBuilder;
+import cuboidx.util.math.Direction;
+import cuboidx.world.World;
+import cuboidx.world.block.BlockType;
+import cuboidx.world.block.BlockTypes;
+import cuboidx.world.chunk.Chunk;
+
+import java.util.function.BooleanSupplier;
+
+/**
+ * The LOD mesher builds a downsampled mesh of a chunk for drawing it from far away.
+ * <p>
+ * The chunk is divided into cells of {@code 2^level} blocks on each axis.
+ * A cell is solid if the most of its blocks are not air, and is drawn as a single cube with the most frequent block in it.
+ * A face of a cell is emitted only if the adjacent cell is not opaque and is a different block, where the cells of the neighbor chunks are voted the same way,
+ * so that the LOD meshes of adjacent chunks of the same level fit together.
+ * The mesher is reused by each thread, so meshing does not allocate.
+ * The votes are kept for the other layers of the same compilation, so the cells are voted once for all layers.
+ * <p>
+ * The border cells vote the blocks of the neighbors within {@value #MAX_CELL_SIZE} blocks of the faces,
+ * so an edit there changes the LOD meshes of the neighbors as well.
+ *
+ * @author squid233
+ * @since 0.1.0
+ */
+public final class ChunkLodMesher {
+    /**
+     * The count of the detail levels, including the full detail level 0.
+     */
+    public static final int LEVEL_COUNT = 3;
+    /**
+     * The size in blocks of the cells of the coarsest level.
+     */
+    public static final int MAX_CELL_SIZE = 1 << (LEVEL_COUNT - 1);
+    private static final int MAX_CELLS = Chunk.SIZE / 2 + 2;
+    private static final int MAX_CELL_VOLUME = 1 << (3 * (LEVEL_COUNT - 1));
+    private static final ThreadLocal<ChunkLodMesher> MESHER = ThreadLocal.withInitial(ChunkLodMesher::new);
+    private final BlockType[] cells = new BlockType[MAX_CELLS * MAX_CELLS * MAX_CELLS];
+    private final BlockType[] candidates = new BlockType[MAX_CELL_VOLUME];
+    private final int[] votes = new int[MAX_CELL_VOLUME];
+    // the compilation the cells were voted for
+    private Chunk votedChunk = null;
+    private int votedLevel = 0;
+    private long votedVersion = -1;
+
+    private ChunkLodMesher() {
+    }
+
+    /**
+     * Emits the cells of the given layer of the given chunk at the given level.
+     *
+     * @param renderer  the block renderer
+     * @param builder   the builder
+     * @param chunk     the chunk
+     * @param layer     the render layer
+     * @param level     the level, from 1 to {@code LEVEL_COUNT - 1}
+     * @param version   the version of the compilation; the cells voted for the same version and level are reused
+     * @param cancelled returns {@code true} if the meshing should stop
+     */
+    public static void emit(BlockRenderer renderer,
+                            VertexBuilder builder,
+                            Chunk chunk,
+                            BlockRenderLayer layer,
+                            int level,
+                            long version,
+                            BooleanSupplier cancelled) {
+        if (level <= 0 || level >= LEVEL_COUNT) {
+            throw new IllegalArgumentException(STR."Invalid LOD level: \{level}");
+        }
+        MESHER.get().emitCells(renderer, builder, chunk, layer, level, version, cancelled);
+    }
+
+    private void emitCells(BlockRenderer renderer,
+                           VertexBuilder builder,
+                           Chunk chunk,
+                           BlockRenderLayer layer,
+                           int level,
+                           long version,
+                           BooleanSupplier cancelled) {
+        final World world = chunk.world();
+        final int cellSize = 1 << level;
+        final int width = Math.ceilDiv(chunk.x1() - chunk.x0() + 1, cellSize);
+        final int height = Math.ceilDiv(chunk.y1() - chunk.y0() + 1, cellSize);
+        final int depth = Math.ceilDiv(chunk.z1() - chunk.z0() + 1, cellSize);
+        final int stride = Chunk.SIZE / cellSize + 2;
+
+        if (chunk != votedChunk || level != votedLevel || version != votedVersion) {
+            votedChunk = null;
+            // vote the cells of this chunk and a border of the cells of the neighbors
+            for (int y = -1; y <= height; y++) {
+                for (int z = -1; z <= depth; z++) {
+                    for (int x = -1; x <= width; x++) {
+                        cells[index(stride, x, y, z)] = vote(world,
+                            chunk.x0() + x * cellSize,
+                            chunk.y0() + y * cellSize,
+                            chunk.z0() + z * cellSize,
+                            cellSize);
+                    }
+                }
+            }
+            votedChunk = chunk;
+            votedLevel = level;
+            votedVersion = version;
+        }
+
+        for (Direction direction : Direction.list()) {
+            for (int x = 0; x < width; x++) {
+                if (cancelled.getAsBoolean()) return;
+                for (int y = 0; y < height; y++) {
+                    for (int z = 0; z < depth; z++) {
+                        final BlockType block = cells[index(stride, x, y, z)];
+                        if (block.air() || BlockRenderLayers.get(block) != layer) continue;
+                        final BlockType neighbor = cells[index(stride,
+                            x + direction.axisX(),
+                            y + direction.axisY(),
+                            z + direction.axisZ())];
+                        if (BlockRenderLayers.isFaceVisible(block, neighbor)) {
+                            renderer.renderBlockFace(builder, block,
+                                chunk.x0() + x * cellSize,
+                                chunk.y0() + y * cellSize,
+                                chunk.z0() + z * cellSize,
+                                cellSize,
+                                direction);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static int index(int stride, int x, int y, int z) {
+        return ((y + 1) * stride + z + 1) * stride + x + 1;
+    }
+
+    /**
+     * Votes the block of a cell. The blocks out of the world are not counted.
+     *
+     * @return the most frequent non-air block if the most of the blocks in the world are not air; otherwise air
+     */
+    private BlockType vote(World world, int x0, int y0, int z0, int cellSize) {
+        int total = 0;
+        int nonAir = 0;
+        int candidateCount = 0;
+        for (int y = y0; y < y0 + cellSize; y++) {
+            for (int z = z0; z < z0 + cellSize; z++) {
+                for (int x = x0; x < x0 + cellSize; x++) {
+                    if (!world.isInBound(x, y, z)) continue;
+                    total++;
+                    final BlockType block = world.getBlock(x, y, z);
+                    if (block.air()) continue;
+                    nonAir++;
+                    int i = 0;
+                    while (i < candidateCount && candidates[i] != block) i++;
+                    if (i == candidateCount) {
+                        candidates[candidateCount++] = block;
+                        votes[i] = 0;
+                    }
+                    votes[i]++;
+                }
+            }
+        }
+        if (nonAir * 2 <= total) return BlockTypes.AIR;
+        int winner = 0;
+        for (int i = 1; i < candidateCount; i++) {
+            if (votes[i] > votes[winner]) winner = i;
+        }
+        return candidates[winner];
+    }
+}
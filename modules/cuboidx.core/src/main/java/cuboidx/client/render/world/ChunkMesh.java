@@ -0,0 +1,183 @@
+/*
+ * cuboidx - A 3D sandbox game
+ * Copyright (C) 2023  XenFork Union
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package cuboidx.client.render.world;
+
+import cuboidx.client.gl.GLStagingBuffer;
+import cuboidx.client.render.BufferedVertexBuilder;
+import cuboidx.client.render.BuiltBuffer;
+import cuboidx.client.render.SortableQuads;
+import org.jetbrains.annotations.Nullable;
+import org.overrun.pooling.KeyedPoolObjectState;
+import overrungl.opengl.GL;
+
+import java.lang.foreign.MemorySegment;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A compiled mesh of a {@link ClientChunk} that is waiting to be uploaded.
+ * <p>
+ * The {@link #buffer() buffer} is either a view of the memory of the builder it was built with,
+ * or a view of a {@link GLStagingBuffer.Region staging region}.
+ * In the former case, the mesh owns the builder,
+ * and the builder is returned to the {@link ChunkCompiler compiler} only after the mesh is {@link #close() closed}.
+ *
+ * @author squid233
+ * @since 0.1.0
+ */
+public final class ChunkMesh implements AutoCloseable {
+    private final ChunkCompiler compiler;
+    private final BlockRenderLayer layer;
+    private final @Nullable KeyedPoolObjectState<BlockRenderLayer, BufferedVertexBuilder> builder;
+    private final @Nullable GLStagingBuffer stagingBuffer;
+    private final GLStagingBuffer.@Nullable Region region;
+    private final BuiltBuffer buffer;
+    private final List<Section> sections;
+    private final long version;
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private boolean uploaded = false;
+
+    public ChunkMesh(ChunkCompiler compiler,
+                     BlockRenderLayer layer,
+                     @Nullable KeyedPoolObjectState<BlockRenderLayer, BufferedVertexBuilder> builder,
+                     @Nullable GLStagingBuffer stagingBuffer,
+                     GLStagingBuffer.@Nullable Region region,
+                     BuiltBuffer buffer,
+                     List<Section> sections,
+                     long version) {
+        this.compiler = compiler;
+        this.layer = layer;
+        this.builder = builder;
+        this.stagingBuffer = stagingBuffer;
+        this.region = region;
+        this.buffer = buffer;
+        this.sections = sections;
+        this.version = version;
+    }
+
+    /**
+     * A section of the mesh that is rebuilt independently, such as a slab of a chunk.
+     * <p>
+     * The indices of a section are relative to the first vertex of the mesh, not of the section.
+     *
+     * @param index       the index of the section in the chunk
+     * @param firstVertex the first vertex in the mesh
+     * @param vertexCount the count of the vertices
+     * @param firstIndex  the first index in the mesh
+     * @param indexCount  the count of the indices
+     * @param quads       the quads to be sorted again, or {@code null} if the section is not sorted.
+     *                    If the section has no vertices, these are the quads whose indices are sorted
+     * @author squid233
+     * @since 0.1.0
+     */
+    public /* value */ record Section(int index,
+                                      int firstVertex,
+                                      int vertexCount,
+                                      int firstIndex,
+                                      int indexCount,
+                                      @Nullable SortableQuads quads) {
+        /**
+         * {@return {@code true} if this section only holds the {@link SortableQuads#sort sorted} indices of the quads,
+         * which replace the indices of the uploaded section of the same quads}
+         */
+        public boolean indicesOnly() {
+            return vertexCount == 0 && quads != null;
+        }
+    }
+
+    /**
+     * Uploads a range of the vertex data into the given buffer. Must be called from the render thread.
+     *
+     * @param target    the target to bind the buffer to
+     * @param id        the buffer
+     * @param srcOffset the offset in the vertex data in bytes
+     * @param dstOffset the offset in the buffer in bytes
+     * @param size      the size in bytes
+     */
+    public void uploadData(int target, int id, long srcOffset, long dstOffset, long size) {
+        upload(target, id, buffer.data(), srcOffset, dstOffset, size);
+    }
+
+    /**
+     * Uploads a range of the index data into the given buffer. Must be called from the render thread.
+     *
+     * @param target    the target to bind the buffer to
+     * @param id        the buffer
+     * @param srcOffset the offset in the index data in bytes
+     * @param dstOffset the offset in the buffer in bytes
+     * @param size      the size in bytes
+     */
+    public void uploadIndexData(int target, int id, long srcOffset, long dstOffset, long size) {
+        upload(target, id, buffer.indexData(), srcOffset, dstOffset, size);
+    }
+
+    private void upload(int target, int id, MemorySegment data, long srcOffset, long dstOffset, long size) {
+        uploaded = true;
+        if (size == 0) return;
+        GL.bindBuffer(target, id);
+        if (stagingBuffer != null && region != null) {
+            final long offset = data.address() - region.segment().address() + srcOffset;
+            stagingBuffer.copy(region, offset, target, dstOffset, size);
+        } else {
+            GL.bufferSubData(target, dstOffset, data.asSlice(srcOffset, size));
+        }
+    }
+
+    public BlockRenderLayer layer() {
+        return layer;
+    }
+
+    public BuiltBuffer buffer() {
+        return buffer;
+    }
+
+    /**
+     * {@return the sections in this mesh}
+     */
+    public List<Section> sections() {
+        return sections;
+    }
+
+    /**
+     * {@return the version of this mesh} A mesh with a greater version is compiled later.
+     */
+    public long version() {
+        return version;
+    }
+
+    /**
+     * Releases the memory of this mesh.
+     * If this mesh has been uploaded, this must be called from the render thread.
+     */
+    @Override
+    public void close() {
+        if (closed.compareAndSet(false, true)) {
+            if (builder != null) {
+                compiler.returning(builder);
+            }
+            if (stagingBuffer != null && region != null) {
+                if (uploaded) {
+                    stagingBuffer.fence(region);
+                } else {
+                    stagingBuffer.release(region);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * cuboidx - A 3D sandbox game
+ * Copyright (C) 2023  XenFork Union
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package cuboidx.client.render.world;
+
+import cuboidx.util.math.Direction;
+import cuboidx.world.chunk.Chunk;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The occlusion culler finds the visible chunks with a breadth-first search from the chunk of the camera.
+ * <p>
+ * The search goes from a chunk to its neighbor only if the face it entered the chunk through
+ * is connected to the face towards the neighbor in the {@link ChunkVisibilityGraph visibility} of the chunk,
+ * and the neighbor is in the frustum of the {@link ChunkFrustumCuller frustum culler}.
+ * The search never goes back in the opposite direction of any direction it has gone,
+ * so each chunk is visited at most once.
+ *
+ * @author squid233
+ * @since 0.1.0
+ */
+public final class ChunkOcclusionCuller {
+    private final ClientChunk[] chunks;
+    private final ChunkFrustumCuller frustumCuller;
+    private final int xChunks, yChunks, zChunks;
+    private final int[] queue;
+    private final byte[] enteredFaces;
+    private final byte[] directionMasks;
+    private final int[] visitedFrames;
+    private final List<ClientChunk> visibleChunks;
+    private int frame = 0;
+
+    /**
+     * Creates the culler.
+     *
+     * @param chunks        the chunks, indexed by {@code xChunks * (y * zChunks + z) + x}
+     * @param xChunks       the count of the chunks on the x-axis
+     * @param yChunks       the count of the chunks on the y-axis
+     * @param zChunks       the count of the chunks on the z-axis
+     * @param frustumCuller the frustum culler
+     */
+    public ChunkOcclusionCuller(ClientChunk[] chunks, int xChunks, int yChunks, int zChunks, ChunkFrustumCuller frustumCuller) {
+        this.chunks = chunks;
+        this.frustumCuller = frustumCuller;
+        this.xChunks = xChunks;
+        this.yChunks = yChunks;
+        this.zChunks = zChunks;
+        this.queue = new int[chunks.length];
+        this.enteredFaces = new byte[chunks.length];
+        this.directionMasks = new byte[chunks.length];
+        this.visitedFrames = new int[chunks.length];
+        this.visibleChunks = new ArrayList<>(chunks.length);
+    }
+
+    private int indexOf(int x, int y, int z) {
+        if (x < 0 || y < 0 || z < 0 || x >= xChunks || y >= yChunks || z >= zChunks) return -1;
+        return xChunks * (y * zChunks + z) + x;
+    }
+
+    /**
+     * Finds the visible chunks. Must be called from the thread that updates the frustum culler, after it is updated.
+     *
+     * @param x the x position of the camera
+     * @param y the y position of the camera
+     * @param z the z position of the camera
+     * @return the visible chunks, in the order of the search. The list is reused by the next call
+     */
+    public List<ClientChunk> cull(double x, double y, double z) {
+        visibleChunks.clear();
+        frame++;
+        final int start = indexOf(
+            Math.floorDiv((int) Math.floor(x), Chunk.SIZE),
+            Math.floorDiv((int) Math.floor(y), Chunk.SIZE),
+            Math.floorDiv((int) Math.floor(z), Chunk.SIZE)
+        );
+        if (start < 0) {
+            // the camera is outside the world; there is nothing to search from
+            for (ClientChunk chunk : chunks) {
+                if (frustumCuller.isVisible(chunk)) visibleChunks.add(chunk);
+            }
+            return visibleChunks;
+        }
+
+        int head = 0;
+        int tail = 0;
+        queue[tail] = start;
+        enteredFaces[tail] = -1;
+        directionMasks[tail] = 0;
+        tail++;
+        visitedFrames[start] = frame;
+        while (head < tail) {
+            final int index = queue[head];
+            final int entered = enteredFaces[head];
+            final int mask = directionMasks[head];
+            head++;
+            final ClientChunk chunk = chunks[index];
+            visibleChunks.add(chunk);
+            final long visibility = chunk.visibility();
+            final int cx = index % xChunks;
+            final int cz = (index / xChunks) % zChunks;
+            final int cy = index / (xChunks * zChunks);
+            for (Direction direction : Direction.list()) {
+                if ((mask & (1 << direction.oppositeId())) != 0) continue;
+                if (entered >= 0 && !ChunkVisibilityGraph.isConnected(visibility, Direction.byId(entered), direction)) {
+                    continue;
+                }
+                final int next = indexOf(cx + direction.axisX(), cy + direction.axisY(), cz + direction.axisZ());
+                if (next < 0 || visitedFrames[next] == frame) continue;
+                if (!frustumCuller.isVisible(chunks[next])) continue;
+                visitedFrames[next] = frame;
+                queue[tail] = next;
+                // entering the neighbor through its face towards this chunk
+                enteredFaces[tail] = (byte) direction.oppositeId();
+                directionMasks[tail] = (byte) (mask | (1 << direction.id()));
+                tail++;
+            }
+        }
+        return visibleChunks;
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * cuboidx - A 3D sandbox game
+ * Copyright (C) 2023  XenFork Union
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package cuboidx.client.render.world;
+
+import org.joml.FrustumIntersection;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The upload queue collects compiled chunks and uploads them within a per-frame budget.
+ * <p>
+ * Chunks are uploaded in the order of {@link ClientChunk#priority(double, double, double, FrustumIntersection) priority}:
+ * visible chunks first, then the nearest.
+ * Once the bytes or the time spent in a frame exceed the budget, the remaining chunks are carried over to the next frame.
+ * At least one chunk is uploaded per frame.
+ *
+ * @author squid233
+ * @since 0.1.0
+ */
+public final class ChunkUploadQueue {
+    public static final long DEFAULT_BYTES_PER_FRAME = 8L * 1024 * 1024;
+    public static final long DEFAULT_NANOS_PER_FRAME = 2_000_000L;
+    private final Queue<ClientChunk> incoming = new ConcurrentLinkedQueue<>();
+    private final List<ClientChunk> pending = new ArrayList<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private volatile long bytesPerFrame = DEFAULT_BYTES_PER_FRAME;
+    private volatile long nanosPerFrame = DEFAULT_NANOS_PER_FRAME;
+
+    /**
+     * Adds a chunk that has a pending mesh. This method can be called from any thread.
+     *
+     * @param chunk the chunk
+     */
+    public void offer(ClientChunk chunk) {
+        if (chunk.states().markQueued()) {
+            size.incrementAndGet();
+            incoming.offer(chunk);
+        }
+    }
+
+    /**
+     * Uploads the pending chunks within the budget. Must be called from the render thread.
+     *
+     * @param x       the x position of the camera
+     * @param y       the y position of the camera
+     * @param z       the z position of the camera
+     * @param frustum the frustum of the camera
+     * @return the bytes uploaded
+     */
+    public long upload(double x, double y, double z, FrustumIntersection frustum) {
+        ClientChunk chunk;
+        while ((chunk = incoming.poll()) != null) {
+            pending.add(chunk);
+        }
+        if (pending.isEmpty()) return 0;
+
+        for (ClientChunk c : pending) {
+            c.updatePriority(x, y, z, frustum);
+        }
+        pending.sort(Comparator.comparingDouble(ClientChunk::lastPriority));
+
+        final long bytesBudget = bytesPerFrame;
+        final long nanosBudget = nanosPerFrame;
+        final long start = System.nanoTime();
+        long bytes = 0;
+        int i = 0;
+        for (int size = pending.size(); i < size; i++) {
+            if (i > 0 && (bytes >= bytesBudget || System.nanoTime() - start >= nanosBudget)) {
+                break;
+            }
+            final ClientChunk c = pending.get(i);
+            // unmark before taking the mesh so that a newer mesh is queued again
+            c.states().unmarkQueued();
+            bytes += c.upload();
+        }
+        pending.subList(0, i).clear();
+        size.addAndGet(-i);
+        return bytes;
+    }
+
+    /**
+     * {@return the count of the chunks waiting to be uploaded} This method can be called from any thread.
+     */
+    public int size() {
+        return size.get();
+    }
+
+    public void setBytesPerFrame(long bytesPerFrame) {
+        this.bytesPerFrame = bytesPerFrame;
+    }
+
+    public long bytesPerFrame() {
+        return bytesPerFrame;
+    }
+
+    public void setNanosPerFrame(long nanosPerFrame) {
+        this.nanosPerFrame = nanosPerFrame;
+    }
+
+    public long nanosPerFrame() {
+        return nanosPerFrame;
+    }
+}
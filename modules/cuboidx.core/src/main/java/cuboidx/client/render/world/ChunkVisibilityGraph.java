@@ -0,0 +1,171 @@
+/*
+ * cuboidx - A 3D sandbox game
+ * Copyright (C) 2023  XenFork Union
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package cuboidx.client.render.world;
+
+import cuboidx.util.math.Direction;
+import cuboidx.world.World;
+import cuboidx.world.chunk.Chunk;
+
+import java.util.Arrays;
+
+/**
+ * The visibility graph computes which faces of a chunk can see each other through the non-opaque blocks.
+ * <p>
+ * The result is a bit set of 6&times;6 bits, where the bit {@code from * 6 + to} is set
+ * if the face {@code from} is connected to the face {@code to} by flood-filling the non-opaque blocks.
+ * The graph is reused by each thread, so computing it does not allocate.
+ *
+ * @author squid233
+ * @since 0.1.0
+ */
+public final class ChunkVisibilityGraph {
+    /**
+     * All faces are connected to each other.
+     */
+    public static final long ALL_CONNECTED = (1L << 36) - 1;
+    /**
+     * No face is connected.
+     */
+    public static final long NONE_CONNECTED = 0L;
+    private static final int VOLUME = Chunk.SIZE * Chunk.SIZE * Chunk.SIZE;
+    private static final ThreadLocal<ChunkVisibilityGraph> GRAPH = ThreadLocal.withInitial(ChunkVisibilityGraph::new);
+    private final long[] opaque = new long[VOLUME / Long.SIZE];
+    private final long[] visited = new long[VOLUME / Long.SIZE];
+    private final int[] queue = new int[VOLUME];
+
+    private ChunkVisibilityGraph() {
+    }
+
+    private static int index(int x, int y, int z) {
+        return (y * Chunk.SIZE + z) * Chunk.SIZE + x;
+    }
+
+    private static boolean get(long[] bits, int index) {
+        return (bits[index >>> 6] & (1L << index)) != 0;
+    }
+
+    private static void set(long[] bits, int index) {
+        bits[index >>> 6] |= 1L << index;
+    }
+
+    /**
+     * {@return {@code true} if the given faces are connected in the given visibility}
+     *
+     * @param visibility the visibility computed by {@link #compute(Chunk)}
+     * @param from       the face
+     * @param to         the other face
+     */
+    public static boolean isConnected(long visibility, Direction from, Direction to) {
+        return (visibility & (1L << (from.id() * 6 + to.id()))) != 0;
+    }
+
+    /**
+     * Computes the visibility of the given chunk.
+     *
+     * @param chunk the chunk
+     * @return the visibility
+     */
+    public static long compute(Chunk chunk) {
+        return GRAPH.get().computeVisibility(chunk);
+    }
+
+    private long computeVisibility(Chunk chunk) {
+        final World world = chunk.world();
+        final int width = chunk.x1() - chunk.x0() + 1;
+        final int height = chunk.y1() - chunk.y0() + 1;
+        final int depth = chunk.z1() - chunk.z0() + 1;
+        Arrays.fill(opaque, 0L);
+        Arrays.fill(visited, 0L);
+        int opaqueCount = 0;
+        for (int y = 0; y < height; y++) {
+            for (int z = 0; z < depth; z++) {
+                for (int x = 0; x < width; x++) {
+                    if (BlockRenderLayers.isOpaque(world.getBlock(chunk.x0() + x, chunk.y0() + y, chunk.z0() + z))) {
+                        set(opaque, index(x, y, z));
+                        opaqueCount++;
+                    }
+                }
+            }
+        }
+        if (opaqueCount == 0) return ALL_CONNECTED;
+        if (opaqueCount == width * height * depth) return NONE_CONNECTED;
+
+        long visibility = NONE_CONNECTED;
+        // flood-fill from each non-opaque block on the border
+        for (int y = 0; y < height; y++) {
+            for (int z = 0; z < depth; z++) {
+                for (int x = 0; x < width; x++) {
+                    if (x != 0 && x != width - 1 &&
+                        y != 0 && y != height - 1 &&
+                        z != 0 && z != depth - 1) {
+                        continue;
+                    }
+                    final int index = index(x, y, z);
+                    if (get(opaque, index) || get(visited, index)) continue;
+                    final int faces = fill(index, width, height, depth);
+                    for (int from = 0; from < 6; from++) {
+                        if ((faces & (1 << from)) == 0) continue;
+                        for (int to = 0; to < 6; to++) {
+                            if ((faces & (1 << to)) != 0) {
+                                visibility |= 1L << (from * 6 + to);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return visibility;
+    }
+
+    /**
+     * Flood-fills the non-opaque blocks from the given block.
+     *
+     * @return the bit set of the ids of the faces reached
+     */
+    private int fill(int start, int width, int height, int depth) {
+        int head = 0;
+        int tail = 0;
+        int faces = 0;
+        queue[tail++] = start;
+        set(visited, start);
+        while (head < tail) {
+            final int index = queue[head++];
+            final int x = index % Chunk.SIZE;
+            final int z = (index / Chunk.SIZE) % Chunk.SIZE;
+            final int y = index / (Chunk.SIZE * Chunk.SIZE);
+            if (x == 0) faces |= 1 << Direction.WEST.id();
+            if (x == width - 1) faces |= 1 << Direction.EAST.id();
+            if (y == 0) faces |= 1 << Direction.DOWN.id();
+            if (y == height - 1) faces |= 1 << Direction.UP.id();
+            if (z == 0) faces |= 1 << Direction.NORTH.id();
+            if (z == depth - 1) faces |= 1 << Direction.SOUTH.id();
+            for (Direction direction : Direction.list()) {
+                final int nx = x + direction.axisX();
+                final int ny = y + direction.axisY();
+                final int nz = z + direction.axisZ();
+                if (nx < 0 || ny < 0 || nz < 0 || nx >= width || ny >= height || nz >= depth) continue;
+                final int next = index(nx, ny, nz);
+                if (get(opaque, next) || get(visited, next)) continue;
+                set(visited, next);
+                queue[tail++] = next;
+            }
+        }
+        return faces;
+    }
+}
@@ -19,178 +19,588 @@
 package cuboidx.client.render.world;
 
 import cuboidx.client.CuboidX;
-import cuboidx.client.gl.GLDrawMode;
-import cuboidx.client.gl.GLStateMgr;
-import cuboidx.client.gl.RenderSystem;
+import cuboidx.client.gl.GLBufferArena;
 import cuboidx.client.render.BufferedVertexBuilder;
+import cuboidx.client.render.SortableQuads;
 import cuboidx.util.math.Direction;
 import cuboidx.world.World;
 import cuboidx.world.block.BlockType;
 import cuboidx.world.chunk.Chunk;
 import cuboidx.world.entity.Entity;
+import org.jetbrains.annotations.Nullable;
 import org.joml.FrustumIntersection;
+import org.joml.Vector3d;
+import org.joml.Vector3dc;
 import overrungl.opengl.GL;
-import overrungl.util.MemoryStack;
-import overrungl.util.MemoryUtil;
 
-import java.lang.foreign.MemorySegment;
-import java.lang.foreign.ValueLayout;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.BooleanSupplier;
 
 /**
  * A client chunk that stored the vertices and indices data.
  * <p>
  * There are 4 phases of compilation: dirtying, submitting, compiling and uploading.
  * <h2>Dirtying</h2>
- * If the content of this chunk has been changed, this chunk will {@link #markDirty()}.
+ * If the content of this chunk has been changed, this chunk will {@link #markDirty(int, long) mark} the affected sections dirty.
+ * A section is either a slab of {@value #SLAB_HEIGHT} layers of the full detail mesh,
+ * or the whole {@link ChunkLodMesher downsampled} mesh of a LOD level, which is compiled and uploaded independently.
+ * Each {@link BlockRenderLayer render layer} has its own meshes, so the dirty state is tracked per slot,
+ * where a slot is a section of a layer.
+ * Only the slots of the current {@link #lodLevel() LOD level} are compiled; the others stay dirty until the level changes.
  * {@link WorldRenderer} will collect dirty chunks and submit then to the compiling task queue.
  * <h2>Submitting</h2>
- * Dirty chunks are submitted.
- * If the chunk submitted successfully, {@link #submitted() submitted} will be set to {@code true} and it will compile;
- * otherwise it is discarded and deferred to next submitting.
+ * Dirty chunks are submitted to the {@link ChunkCompileScheduler scheduler} with their priorities.
+ * A chunk has at most one pending task.
  * <h2>Compiling</h2>
- * Compiling chunk means building mesh data of the chunk.
- * This is done from another thread.
- * Once the chunk is compiled, {@link CompileStates#hadCompiled() hadCompiled} will be set to {@code true},
- * {@link CompileStates#uploaded() uploaded}, {@link #dirty() dirty} and {@link #submitted() submitted} will be set to false.
+ * Compiling chunk means building mesh data of the dirty slots of the current level, a mesh for each layer,
+ * and computing the {@link ChunkVisibilityGraph visibility} of the whole chunk if the opacity of any block has changed.
+ * This is done from a worker thread of the scheduler.
+ * The dirty slots are {@link #takeDirtySlots() taken} when the compilation starts,
+ * so an edit during the compilation dirties the chunk again, and the chunk is compiled again once the running compilation finishes.
+ * The translucent quads are sorted from far to near the {@link #sortOrigin() sort origin},
+ * and {@link #requestResort(double, double, double) sorted again} by their indices once the camera moves away from it.
+ * The sorting is done from a worker thread as well, which emits only the indices of the uploaded slots.
+ * Once the chunk is compiled, the {@link ChunkMesh meshes} are handed to {@link CompileStates#addPendingMesh(ChunkMesh)},
+ * and the chunk is queued in the {@link ChunkUploadQueue upload queue}.
  * <h2>Uploading</h2>
- * If the chunk have had compiled, then the render thread will upload the mesh data to OpenGL.
- * Once the chunk is uploaded, {@link CompileStates#uploaded() uploaded} will be set to {@code true}.
+ * If the chunk has pending meshes, then the render thread will upload the slots into their ranges of the {@link ChunkBufferArena arenas},
+ * either directly from the memory of the builder or by copying from the {@link cuboidx.client.gl.GLStagingBuffer staging buffer}.
+ * Once the chunk is uploaded, {@link CompileStates#hadCompiled() hadCompiled} will be set to {@code true}.
  *
  * @author squid233
  * @since 0.1.0
  */
 public final class ClientChunk extends Chunk implements AutoCloseable {
-    private final CompileStates states = new CompileStates();
+    /**
+     * The priority offset of the chunks outside the frustum.
+     */
+    public static final double INVISIBLE_PRIORITY = 1e9;
+    /**
+     * The count of the slabs. A slab is a range of the layers of a chunk that is compiled independently.
+     */
+    public static final int SLAB_COUNT = 8;
+    /**
+     * The count of the layers in a slab.
+     */
+    public static final int SLAB_HEIGHT = Chunk.SIZE / SLAB_COUNT;
+    /**
+     * The count of the sections: a section for each slab, and a section for each downsampled level.
+     */
+    public static final int SECTION_COUNT = SLAB_COUNT + ChunkLodMesher.LEVEL_COUNT - 1;
+    private static final int ALL_SLABS = (1 << SLAB_COUNT) - 1;
+    private static final int ALL_SECTIONS = (1 << SECTION_COUNT) - 1;
+    /**
+     * The bit set of the sections of the downsampled levels.
+     */
+    public static final int LOD_SECTIONS = ALL_SECTIONS & ~ALL_SLABS;
+    /**
+     * The count of the slots. The slot of a section of a layer is {@code layer.id() * SECTION_COUNT + section}.
+     */
+    public static final int SLOT_COUNT = SECTION_COUNT * BlockRenderLayer.COUNT;
+
+    static {
+        // the dirty slots are a bit set in an int
+        if (SLOT_COUNT > Integer.SIZE) {
+            throw new IllegalStateException(STR."Too many slots: \{SLOT_COUNT} > \{Integer.SIZE}");
+        }
+    }
+
+    /**
+     * The minimum distance in blocks the camera moves from the sort origin before the translucent quads are sorted again.
+     */
+    private static final double RESORT_DISTANCE = 1.0;
+    /**
+     * The ratio of the distance from the sort origin to the distance from the chunk center
+     * before the translucent quads are sorted again, so that the far chunks are sorted less often.
+     */
+    private static final double RESORT_DISTANCE_RATIO = 0.25;
+    private final CompileStates states;
+    private final ChunkBorderMask borderMask = new ChunkBorderMask();
     private final CuboidX client;
-    private final AtomicBoolean dirty = new AtomicBoolean(true);
-    private final AtomicBoolean submitted = new AtomicBoolean();
+    private final AtomicInteger dirtySlots = new AtomicInteger(allLayers(ALL_SECTIONS));
+    private final AtomicInteger failedSlots = new AtomicInteger();
+    private final AtomicInteger nonAirCount = new AtomicInteger();
+    private final AtomicInteger exposedFaceCount = new AtomicInteger();
+    private final AtomicIntegerArray layerBlockCounts = new AtomicIntegerArray(BlockRenderLayer.COUNT);
+    private volatile long visibility = ChunkVisibilityGraph.ALL_CONNECTED;
+    private final AtomicBoolean opacityChanged = new AtomicBoolean(true);
+    private final AtomicBoolean resortRequested = new AtomicBoolean();
+    private final AtomicLong compileVersion = new AtomicLong();
+    private volatile long dirtyReadyAt = System.nanoTime();
+    private volatile int lodLevel = 0;
+    private volatile Vector3dc sortOrigin;
+    private double lastPriority;
 
     public ClientChunk(CuboidX client,
                        World world,
+                       ChunkBufferArena[] arenas,
                        double x, double y, double z,
                        int x0, int y0, int z0,
                        int x1, int y1, int z1) {
         super(world, x, y, z, x0, y0, z0, x1, y1, z1);
         this.client = client;
+        this.states = new CompileStates(arenas);
+        this.sortOrigin = new Vector3d(centerX(), centerY(), centerZ());
+        borderMask.rebuild(this);
+        countBlocks();
+    }
+
+    private void countBlocks() {
+        final World world = world();
+        int nonAir = 0;
+        int exposedFaces = 0;
+        for (int x = x0(); x <= x1(); x++) {
+            for (int y = y0(); y <= y1(); y++) {
+                for (int z = z0(); z <= z1(); z++) {
+                    final BlockType block = world.getBlock(x, y, z);
+                    if (block.air()) continue;
+                    nonAir++;
+                    layerBlockCounts.incrementAndGet(BlockRenderLayers.get(block).id());
+                    for (Direction direction : Direction.list()) {
+                        final int nx = x + direction.axisX();
+                        final int ny = y + direction.axisY();
+                        final int nz = z + direction.axisZ();
+                        if (!world.isInBound(nx, ny, nz) ||
+                            BlockRenderLayers.isFaceVisible(block, world.getBlock(nx, ny, nz))) {
+                            exposedFaces++;
+                        }
+                    }
+                }
+            }
+        }
+        nonAirCount.set(nonAir);
+        exposedFaceCount.set(exposedFaces);
     }
 
     /**
      * The compiling states of the client chunk.
+     * <p>
+     * Each slot has its own vertex and index ranges suballocated from the {@link ChunkBufferArena arena} of its layer,
+     * so that a slot is uploaded in place as long as it fits in its ranges;
+     * otherwise the ranges are freed and allocated again with a larger capacity.
+     * <p>
+     * The slots of a single level are drawn. The drawn level only switches once all slots of the new level are uploaded,
+     * then the slots of the other levels are freed.
      *
      * @author squid233
      * @since 0.1.0
      */
     public static final class CompileStates implements AutoCloseable {
-        private final BlockRenderLayer layer = BlockRenderLayer.OPAQUE;
-        private final int vao, vbo, ebo;
-        private final AtomicInteger indexCount = new AtomicInteger();
+        private final ChunkBufferArena[] arenas;
         private final AtomicBoolean hadCompiled = new AtomicBoolean();
-        private final AtomicBoolean uploaded = new AtomicBoolean();
-        private final AtomicBoolean expanded = new AtomicBoolean(true);
-        private final AtomicReference<MemorySegment> data = new AtomicReference<>();
-        private final AtomicReference<MemorySegment> indexData = new AtomicReference<>();
+        private final Queue<ChunkMesh> pendingMeshes = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean queued = new AtomicBoolean();
+        private final GLBufferArena.Allocation[] vertexAllocations = new GLBufferArena.Allocation[SLOT_COUNT];
+        private final GLBufferArena.Allocation[] indexAllocations = new GLBufferArena.Allocation[SLOT_COUNT];
+        private final int[] indexCounts = new int[SLOT_COUNT];
+        private final int[] firstVertices = new int[SLOT_COUNT];
+        private final long[] uploadedVersions = new long[SLOT_COUNT];
+        private final boolean[] uploaded = new boolean[SLOT_COUNT];
+        // read by the worker threads to sort the quads again
+        private final AtomicReferenceArray<SortableQuads> quads = new AtomicReferenceArray<>(SLOT_COUNT);
+        private final int[] layerIndexCounts = new int[BlockRenderLayer.COUNT];
+        private int drawnLevel = 0;
+
+        private CompileStates(ChunkBufferArena[] arenas) {
+            this.arenas = arenas;
+        }
+
+        private ChunkBufferArena arena(int slot) {
+            return arenas[slot / SECTION_COUNT];
+        }
 
-        private CompileStates() {
-            vao = GL.genVertexArray();
-            vbo = GL.genBuffer();
-            ebo = GL.genBuffer();
+        /**
+         * {@return the count of the indices of all slots of the given layer}
+         *
+         * @param layer the render layer
+         */
+        public int indexCount(BlockRenderLayer layer) {
+            return layerIndexCounts[layer.id()];
         }
 
-        public BlockRenderLayer layer() {
-            return layer;
+        private void setIndexCount(int slot, int count) {
+            layerIndexCounts[slot / SECTION_COUNT] += count - indexCounts[slot];
+            indexCounts[slot] = count;
         }
 
-        public int vao() {
-            return vao;
+        public void markCompiled() {
+            this.hadCompiled.set(true);
         }
 
-        public int vbo() {
-            return vbo;
+        /**
+         * Had this chunk compiled?
+         */
+        public boolean hadCompiled() {
+            return hadCompiled.get();
         }
 
-        public int ebo() {
-            return ebo;
+        /**
+         * Adds a mesh to be uploaded.
+         *
+         * @param mesh the mesh
+         */
+        public void addPendingMesh(ChunkMesh mesh) {
+            pendingMeshes.offer(mesh);
         }
 
-        public void setIndexCount(int indexCount) {
-            this.indexCount.set(indexCount);
+        /**
+         * Takes the pending meshes in the order of their versions. The caller owns the returned meshes.
+         *
+         * @return the pending meshes
+         */
+        public List<ChunkMesh> takePendingMeshes() {
+            final List<ChunkMesh> meshes = new ArrayList<>(1);
+            ChunkMesh mesh;
+            while ((mesh = pendingMeshes.poll()) != null) {
+                meshes.add(mesh);
+            }
+            if (meshes.size() > 1) {
+                meshes.sort(Comparator.comparingLong(ChunkMesh::version));
+            }
+            return meshes;
         }
 
-        public int indexCount() {
-            return indexCount.get();
+        /**
+         * Marks this chunk as queued for uploading.
+         *
+         * @return {@code true} if this chunk was not queued
+         */
+        public boolean markQueued() {
+            return queued.compareAndSet(false, true);
         }
 
-        public void markCompiled() {
-            this.hadCompiled.set(true);
+        public void unmarkQueued() {
+            queued.set(false);
         }
 
         /**
-         * Had this chunk compiled?
+         * Uploads the sections of the given mesh. Must be called from the render thread.
+         * A section older than the uploaded section of the same slot is skipped.
+         * A section of {@link ChunkMesh.Section#indicesOnly() indices only} is skipped
+         * unless the slot still holds the quads it was sorted from.
+         *
+         * @param mesh the mesh
+         * @return the bytes uploaded
          */
-        public boolean hadCompiled() {
-            return hadCompiled.get();
+        public long upload(ChunkMesh mesh) {
+            final ChunkBufferArena arena = arenas[mesh.layer().id()];
+            final long stride = mesh.layer().layout().stride();
+            final int firstSlot = mesh.layer().id() * SECTION_COUNT;
+            long size = 0;
+            for (ChunkMesh.Section section : mesh.sections()) {
+                final int slot = firstSlot + section.index();
+                if (section.indicesOnly()) {
+                    size += uploadIndices(mesh, arena, slot, section);
+                    continue;
+                }
+                if (mesh.version() < uploadedVersions[slot]) continue;
+                uploadedVersions[slot] = mesh.version();
+                reserve(slot, section.vertexCount(), section.indexCount());
+                final long dataSize = stride * section.vertexCount();
+                final long indexDataSize = (long) section.indexCount() << 2;
+                if (vertexAllocations[slot] != null) {
+                    mesh.uploadData(GL.COPY_WRITE_BUFFER, arena.vertexBuffer(),
+                        stride * section.firstVertex(),
+                        stride * vertexAllocations[slot].offset(),
+                        dataSize);
+                    mesh.uploadIndexData(GL.COPY_WRITE_BUFFER, arena.indexBuffer(),
+                        (long) section.firstIndex() << 2,
+                        indexAllocations[slot].offset() << 2,
+                        indexDataSize);
+                }
+                setIndexCount(slot, section.indexCount());
+                firstVertices[slot] = section.firstVertex();
+                quads.set(slot, vertexAllocations[slot] != null ? section.quads() : null);
+                uploaded[slot] = true;
+                size += dataSize + indexDataSize;
+            }
+            GL.bindBuffer(GL.COPY_WRITE_BUFFER, 0);
+            markCompiled();
+            return size;
         }
 
-        public void setUploaded(boolean uploaded) {
-            this.uploaded.set(uploaded);
+        private long uploadIndices(ChunkMesh mesh, ChunkBufferArena arena, int slot, ChunkMesh.Section section) {
+            if (vertexAllocations[slot] == null || quads.get(slot) != section.quads()) return 0;
+            final long indexDataSize = (long) section.indexCount() << 2;
+            mesh.uploadIndexData(GL.COPY_WRITE_BUFFER, arena.indexBuffer(),
+                (long) section.firstIndex() << 2,
+                indexAllocations[slot].offset() << 2,
+                indexDataSize);
+            return indexDataSize;
         }
 
         /**
-         * Is this chunk re-compiled and then uploaded?
+         * {@return the sortable quads of the given slot, or {@code null} if the slot is not sorted}
+         *
+         * @param slot the slot
          */
-        public boolean uploaded() {
-            return uploaded.get();
+        private @Nullable SortableQuads quads(int slot) {
+            return quads.get(slot);
         }
 
-        public void setExpanded(boolean expanded) {
-            this.expanded.set(expanded);
+        private static int grownCapacity(int count) {
+            // leave some headroom so that small edits fit in place
+            return count + (count >> 2);
         }
 
         /**
-         * Is the buffer of this chunk expanded?
+         * Ensures the ranges of the given slot can hold the given counts.
          */
-        public boolean expanded() {
-            return expanded.get();
+        private void reserve(int slot, int vertexCount, int indexCount) {
+            if (vertexCount == 0 || indexCount == 0) {
+                freeSlot(slot);
+                return;
+            }
+            final ChunkBufferArena arena = arena(slot);
+            if (vertexAllocations[slot] == null || vertexCount > vertexAllocations[slot].count()) {
+                arena.freeVertices(vertexAllocations[slot]);
+                vertexAllocations[slot] = arena.allocateVertices(grownCapacity(vertexCount));
+            }
+            if (indexAllocations[slot] == null || indexCount > indexAllocations[slot].count()) {
+                arena.freeIndices(indexAllocations[slot]);
+                indexAllocations[slot] = arena.allocateIndices(grownCapacity(indexCount));
+            }
         }
 
-        public void setData(MemorySegment data) {
-            this.data.set(data);
+        private void freeSlot(int slot) {
+            final ChunkBufferArena arena = arena(slot);
+            arena.freeVertices(vertexAllocations[slot]);
+            arena.freeIndices(indexAllocations[slot]);
+            vertexAllocations[slot] = null;
+            indexAllocations[slot] = null;
+            quads.set(slot, null);
         }
 
-        public MemorySegment data() {
-            return data.get();
+        /**
+         * {@return {@code true} if this chunk holds any range of the arena}
+         */
+        public boolean hasAllocations() {
+            for (int i = 0; i < SLOT_COUNT; i++) {
+                if (vertexAllocations[i] != null || indexAllocations[i] != null) return true;
+            }
+            return false;
         }
 
-        public void setIndexData(MemorySegment indexData) {
-            this.indexData.set(indexData);
+        /**
+         * Switches the drawn level to the given level if all slots of it are uploaded,
+         * and frees the slots of the other levels. Must be called from the render thread.
+         *
+         * @param level the level
+         * @return the bit set of the freed slots, which must be compiled again before drawn
+         */
+        private int updateDrawnLevel(int level) {
+            if (level == drawnLevel) return 0;
+            final int mask = allLayers(sectionMask(level));
+            for (int i = 0; i < SLOT_COUNT; i++) {
+                if ((mask & (1 << i)) != 0 && !uploaded[i]) return 0;
+            }
+            drawnLevel = level;
+            int freed = 0;
+            for (int i = 0; i < SLOT_COUNT; i++) {
+                if ((mask & (1 << i)) == 0 && uploaded[i]) {
+                    freeSlot(i);
+                    setIndexCount(i, 0);
+                    uploaded[i] = false;
+                    freed |= 1 << i;
+                }
+            }
+            return freed;
         }
 
-        public MemorySegment indexData() {
-            return indexData.get();
+        /**
+         * Adds the draws of the non-empty slots of the given layer at the drawn level to the arena of the layer.
+         * Must be called from the render thread.
+         *
+         * @param layer      the render layer
+         * @param descending {@code true} to add the sections from top to bottom
+         */
+        private void addDraws(BlockRenderLayer layer, boolean descending) {
+            final int mask = layerSlots(layer, sectionMask(drawnLevel));
+            final int firstSlot = layer.id() * SECTION_COUNT;
+            for (int j = 0; j < SECTION_COUNT; j++) {
+                final int i = firstSlot + (descending ? SECTION_COUNT - 1 - j : j);
+                if ((mask & (1 << i)) != 0 && indexCounts[i] > 0) {
+                    // the indices are relative to the first vertex of the mesh;
+                    // the offsets are read every frame, since the allocations may be moved by compaction
+                    arenas[layer.id()].addDraw(indexCounts[i],
+                        indexAllocations[i].offset(),
+                        (int) vertexAllocations[i].offset() - firstVertices[i]);
+                }
+            }
+        }
+
+        private void freeAll() {
+            for (int i = 0; i < SLOT_COUNT; i++) {
+                freeSlot(i);
+            }
+            Arrays.fill(indexCounts, 0);
+            Arrays.fill(firstVertices, 0);
+            Arrays.fill(layerIndexCounts, 0);
+        }
+
+        private void discardPendingMeshes() {
+            ChunkMesh mesh;
+            while ((mesh = pendingMeshes.poll()) != null) {
+                mesh.close();
+            }
+        }
+
+        /**
+         * Releases the ranges of the arena and the pending meshes, since there is nothing to draw.
+         * The meshes compiled before the given version will not be uploaded.
+         * Must be called from the render thread.
+         *
+         * @param version the version
+         */
+        private void release(long version) {
+            discardPendingMeshes();
+            freeAll();
+            Arrays.fill(uploadedVersions, version);
+            // there is nothing to wait for before switching the level
+            Arrays.fill(uploaded, true);
+            markCompiled();
         }
 
         @Override
         public void close() {
-            RenderSystem.deleteVertexArray(vao);
-            RenderSystem.deleteArrayBuffer(vbo);
-            GL.deleteBuffer(ebo);
-            MemoryUtil.free(data());
-            MemoryUtil.free(indexData());
+            freeAll();
+            discardPendingMeshes();
         }
     }
 
-    public void compile(BufferedVertexBuilder builder) {
-        if (!dirty()) return;
+    /**
+     * Compiles the given slots of this chunk with the given compiler.
+     *
+     * @param compiler  the compiler
+     * @param slots     the bit set of the slots to compile
+     * @param resort    {@code true} to sort the translucent quads of the other uploaded slots again from the sort origin
+     * @param cancelled returns {@code true} if the compilation is cancelled and the result will be discarded
+     * @return the compiled meshes, a mesh for each layer that has any slot to compile,
+     * and a mesh of the sorted indices if sorted again.
+     * If the compilation fails, the meshes compiled so far are closed
+     */
+    public List<ChunkMesh> compile(ChunkCompiler compiler, int slots, boolean resort, BooleanSupplier cancelled) {
         final BlockRenderer renderer = client.blockRenderer();
-        builder.begin(GLDrawMode.TRIANGLES);
+        updateVisibility();
+        final long version = compileVersion.incrementAndGet();
+        final Vector3dc origin = sortOrigin;
+        final int presentLayers = presentLayers();
+        final List<ChunkMesh> meshes = new ArrayList<>(BlockRenderLayer.COUNT);
+        try {
+            for (BlockRenderLayer layer : BlockRenderLayer.list()) {
+                final int sections = (slots >>> (layer.id() * SECTION_COUNT)) & ALL_SECTIONS;
+                if (sections == 0) continue;
+                // the sections of an absent layer are still emitted empty, to clear the meshes uploaded before
+                final boolean present = (presentLayers & (1 << layer.id())) != 0;
+                meshes.add(compiler.compile(layer, version, builder ->
+                    emitSections(renderer, builder, layer, sections, present, version, origin, cancelled)));
+                if (cancelled.getAsBoolean()) return meshes;
+            }
+            if (resort) {
+                meshes.add(compiler.compile(BlockRenderLayer.TRANSLUCENT, version, builder ->
+                    emitSortedIndices(builder, slots, origin)));
+            }
+        } catch (RuntimeException e) {
+            meshes.forEach(ChunkMesh::close);
+            throw e;
+        }
+        return meshes;
+    }
+
+    /**
+     * {@return the bit set of the ids of the layers of the non-air blocks in this chunk}
+     */
+    private int presentLayers() {
+        int layers = 0;
+        for (int i = 0; i < BlockRenderLayer.COUNT; i++) {
+            if (layerBlockCounts.get(i) > 0) layers |= 1 << i;
+        }
+        return layers;
+    }
+
+    private List<ChunkMesh.Section> emitSections(BlockRenderer renderer,
+                                                 BufferedVertexBuilder builder,
+                                                 BlockRenderLayer layer,
+                                                 int sections,
+                                                 boolean present,
+                                                 long version,
+                                                 Vector3dc origin,
+                                                 BooleanSupplier cancelled) {
+        final List<ChunkMesh.Section> meshSections = new ArrayList<>(Integer.bitCount(sections));
+        for (int section = 0; section < SECTION_COUNT; section++) {
+            if ((sections & (1 << section)) == 0) continue;
+            final int firstVertex = builder.vertexCount();
+            final int firstIndex = builder.indexCount();
+            SortableQuads quads = null;
+            if (present) {
+                if (section < SLAB_COUNT) {
+                    emitSlab(renderer, builder, layer, section, cancelled);
+                } else {
+                    ChunkLodMesher.emit(renderer, builder, this, layer, section - SLAB_COUNT + 1, version, cancelled);
+                }
+                if (cancelled.getAsBoolean()) return meshSections;
+                if (layer == BlockRenderLayer.TRANSLUCENT) {
+                    quads = builder.sortQuads(firstVertex, firstIndex, (float) origin.x(), (float) origin.y(), (float) origin.z());
+                }
+            }
+            meshSections.add(new ChunkMesh.Section(section,
+                firstVertex,
+                builder.vertexCount() - firstVertex,
+                firstIndex,
+                builder.indexCount() - firstIndex,
+                quads));
+        }
+        return meshSections;
+    }
+
+    /**
+     * Emits the indices of the translucent quads of the uploaded slots at the current level, except the given slots,
+     * sorted from far to near the given origin.
+     */
+    private List<ChunkMesh.Section> emitSortedIndices(BufferedVertexBuilder builder, int slots, Vector3dc origin) {
+        final BlockRenderLayer layer = BlockRenderLayer.TRANSLUCENT;
+        final int mask = layerSlots(layer, sectionMask(lodLevel)) & ~slots;
+        final int firstSlot = layer.id() * SECTION_COUNT;
+        final List<ChunkMesh.Section> meshSections = new ArrayList<>(Integer.bitCount(mask));
+        for (int section = 0; section < SECTION_COUNT; section++) {
+            final int slot = firstSlot + section;
+            if ((mask & (1 << slot)) == 0) continue;
+            final SortableQuads quads = states.quads(slot);
+            if (quads == null) continue;
+            final int firstIndex = builder.indexCount();
+            builder.sortedIndices(quads, (float) origin.x(), (float) origin.y(), (float) origin.z());
+            final int indexCount = builder.indexCount() - firstIndex;
+            // the index limit was exceeded; the slot keeps its order
+            if (indexCount == 0) continue;
+            meshSections.add(new ChunkMesh.Section(section, 0, 0, firstIndex, indexCount, quads));
+        }
+        return meshSections;
+    }
+
+    private void emitSlab(BlockRenderer renderer,
+                          BufferedVertexBuilder builder,
+                          BlockRenderLayer layer,
+                          int slab,
+                          BooleanSupplier cancelled) {
+        final int sy0 = y0() + slab * SLAB_HEIGHT;
+        final int sy1 = Math.min(sy0 + SLAB_HEIGHT - 1, y1());
         for (Direction direction : Direction.list()) {
             for (int x = x0(); x <= x1(); x++) {
-                for (int y = y0(); y <= y1(); y++) {
+                if (cancelled.getAsBoolean()) return;
+                for (int y = sy0; y <= sy1; y++) {
                     for (int z = z0(); z <= z1(); z++) {
                         final BlockType block = world().getBlock(x, y, z);
+                        if (block.air() || BlockRenderLayers.get(block) != layer) continue;
                         if (renderer.shouldRenderFace(block, world(), x, y, z, direction)) {
                             renderer.renderBlockFace(builder, block, x, y, z, direction);
                         }
@@ -198,88 +608,396 @@ public final class ClientChunk extends Chunk implements AutoCloseable {
                 }
             }
         }
-        try (MemoryStack stack = MemoryStack.stackPush()) {
-            final MemorySegment pDataSize = stack.calloc(ValueLayout.JAVA_LONG);
-            states.setIndexCount(builder.end(pDataSize, null, null));
-            final long dataSize = pDataSize.get(ValueLayout.JAVA_LONG, 0);
-            // if never compiled
-            if (!states.hadCompiled()) {
-                states.setData(MemoryUtil.calloc(1, dataSize));
-                states.setIndexData(MemoryUtil.calloc(states.indexCount(), ValueLayout.JAVA_INT));
-                states.setExpanded(true);
-            } else {
-                // if expanded
-                if (dataSize > states.data().byteSize()) {
-                    states.setData(MemoryUtil.realloc(states.data(), dataSize));
-                    states.setExpanded(true);
-                }
-                final long indexDataSize = (long) states.indexCount() << 2;
-                if (indexDataSize > states.indexData().byteSize()) {
-                    states.setIndexData(MemoryUtil.realloc(states.indexData(), indexDataSize));
-                    states.setExpanded(true);
-                }
+    }
+
+    /**
+     * Uploads the pending meshes if present. Must be called from the render thread.
+     *
+     * @return the bytes uploaded
+     */
+    public long upload() {
+        long size = 0;
+        for (ChunkMesh mesh : states.takePendingMeshes()) {
+            try (mesh) {
+                size += states.upload(mesh);
             }
-            builder.end(null, states.data(), states.indexData());
         }
+        return size;
     }
 
-    public void render() {
-        if (states.hadCompiled()) {
-            if (!states.uploaded()) {
-                final int vertexArrayBinding = GLStateMgr.vertexArrayBinding();
-                final int arrayBufferBinding = GLStateMgr.arrayBufferBinding();
-                RenderSystem.bindVertexArray(states.vao());
-                RenderSystem.bindArrayBuffer(states.vbo());
-                if (states.expanded()) {
-                    GL.bufferData(GL.ARRAY_BUFFER, states.data(), GL.DYNAMIC_DRAW);
-                    states.layer().layout().specifyAttributes();
-                } else {
-                    GL.bufferSubData(GL.ARRAY_BUFFER, 0, states.data());
-                }
-                RenderSystem.bindArrayBuffer(arrayBufferBinding);
-                if (states.expanded()) {
-                    GL.bindBuffer(GL.ELEMENT_ARRAY_BUFFER, states.ebo());
-                    GL.bufferData(GL.ELEMENT_ARRAY_BUFFER, states.indexData(), GL.DYNAMIC_DRAW);
-                } else {
-                    GL.bufferSubData(GL.ELEMENT_ARRAY_BUFFER, 0, states.indexData());
-                }
-                RenderSystem.bindVertexArray(vertexArrayBinding);
-                states.setExpanded(false);
-                states.setUploaded(true);
-            }
-            final int vertexArrayBinding = GLStateMgr.vertexArrayBinding();
-            RenderSystem.bindVertexArray(states.vao());
-            GL.drawElements(GL.TRIANGLES, states.indexCount(), GL.UNSIGNED_INT, MemorySegment.NULL);
-            RenderSystem.bindVertexArray(vertexArrayBinding);
+    /**
+     * Switches the drawn level to the current level if the slots of it are uploaded. Must be called from the render thread.
+     */
+    public void updateDrawnLevel() {
+        final int freed = states.updateDrawnLevel(lodLevel);
+        if (freed != 0) {
+            dirtySlots.getAndUpdate(value -> value | freed);
+        }
+    }
+
+    /**
+     * Adds the draws of the given layer of this chunk to the {@link ChunkBufferArena arena} of the layer.
+     * Must be called from the render thread.
+     *
+     * @param layer the render layer
+     */
+    public void render(BlockRenderLayer layer) {
+        if (states.hadCompiled() && states.indexCount(layer) > 0) {
+            // the translucent slabs are drawn from far to near as well
+            states.addDraws(layer, layer == BlockRenderLayer.TRANSLUCENT && sortOrigin.y() < centerY());
+        }
+    }
+
+    /**
+     * Updates the border opacity with the changed block.
+     *
+     * @param x     the x of the block
+     * @param y     the y of the block
+     * @param z     the z of the block
+     * @param block the new block
+     * @return the bit set of the {@link Direction#id() ids} of the faces whose opacity changed
+     * @see ChunkBorderMask#update(Chunk, int, int, int, boolean)
+     */
+    public int updateBorderOpacity(int x, int y, int z, BlockType block) {
+        return borderMask.update(this, x, y, z, BlockRenderLayers.isOpaque(block));
+    }
+
+    public ChunkBorderMask borderMask() {
+        return borderMask;
+    }
+
+    /**
+     * {@return the count of the non-air blocks}
+     */
+    public int nonAirCount() {
+        return nonAirCount.get();
+    }
+
+    /**
+     * {@return the count of the faces of the non-air blocks that are {@link BlockRenderLayers#isFaceVisible seen}
+     * or adjacent to the bound of the world} These are the faces to be drawn.
+     */
+    public int exposedFaceCount() {
+        return exposedFaceCount.get();
+    }
+
+    public void addNonAirCount(int delta) {
+        nonAirCount.addAndGet(delta);
+    }
+
+    public void addExposedFaceCount(int delta) {
+        exposedFaceCount.addAndGet(delta);
+    }
+
+    /**
+     * Adds to the count of the non-air blocks of the given layer.
+     *
+     * @param layer the render layer
+     * @param delta the delta
+     */
+    public void addLayerBlockCount(BlockRenderLayer layer, int delta) {
+        layerBlockCounts.addAndGet(layer.id(), delta);
+    }
+
+    /**
+     * Marks the opacity of a block in this chunk changed, so that the visibility is computed again in the next compilation.
+     */
+    public void markOpacityChanged() {
+        opacityChanged.set(true);
+    }
+
+    /**
+     * Computes the visibility again if the opacity of any block has changed since the last computation.
+     */
+    private void updateVisibility() {
+        if (opacityChanged.getAndSet(false)) {
+            visibility = ChunkVisibilityGraph.compute(this);
+        }
+    }
+
+    /**
+     * {@return the connectivity between the faces of this chunk} All faces are connected before the first compilation.
+     *
+     * @see ChunkVisibilityGraph
+     */
+    public long visibility() {
+        return visibility;
+    }
+
+    /**
+     * {@return {@code true} if this chunk has nothing to draw} An empty chunk is all air or fully buried.
+     */
+    public boolean isEmpty() {
+        return nonAirCount() == 0 || exposedFaceCount() == 0;
+    }
+
+    /**
+     * Clears the dirty slots and releases the ranges of the arena held by this chunk, since it is {@link #isEmpty() empty}.
+     * Must be called from the render thread.
+     */
+    public void release() {
+        dirtySlots.set(0);
+        failedSlots.set(0);
+        if (nonAirCount() == 0) {
+            visibility = ChunkVisibilityGraph.ALL_CONNECTED;
+        } else {
+            // a buried chunk may still be seen through, if it is buried by the non-opaque blocks
+            updateVisibility();
+        }
+        states.release(compileVersion.incrementAndGet());
+    }
+
+    /**
+     * Marks all slots of this chunk dirty.
+     *
+     * @return {@code true} if the slots of the current level were not dirty
+     */
+    public boolean markDirty() {
+        return markDirtySlots(allLayers(ALL_SECTIONS), 0L);
+    }
+
+    /**
+     * Marks the given sections of all layers of this chunk dirty,
+     * and delays the compilation so that the following edits are coalesced.
+     *
+     * @param sections   the bit set of the sections
+     * @param delayNanos the delay in nanoseconds
+     * @return {@code true} if the slots of the current level were not dirty and some of them are dirty now,
+     * that is, the chunk should be submitted
+     */
+    public boolean markDirty(int sections, long delayNanos) {
+        return markDirtySlots(allLayers(sections), delayNanos);
+    }
+
+    /**
+     * Marks the given slots of this chunk dirty.
+     *
+     * @param slots      the bit set of the slots
+     * @param delayNanos the delay in nanoseconds
+     * @return {@code true} if the slots of the current level were not dirty and some of them are dirty now,
+     * that is, the chunk should be submitted
+     * @see #markDirty(int, long)
+     */
+    public boolean markDirtySlots(int slots, long delayNanos) {
+        // the failed slots are compiled again along with the next edit
+        final int dirty = slots | failedSlots.getAndSet(0);
+        final int mask = slotMask(lodLevel);
+        if ((dirty & mask) == 0) {
+            dirtySlots.getAndUpdate(value -> value | dirty);
+            return false;
+        }
+        if ((dirtySlots.getAndUpdate(value -> value | dirty) & mask) == 0) {
+            dirtyReadyAt = System.nanoTime() + delayNanos;
+            return true;
         }
+        return false;
     }
 
-    public void markDirty() {
-        dirty.set(true);
+    /**
+     * Records the slots whose compilation failed.
+     * The slots are not dirty, so that a failing compilation is not retried in a loop,
+     * but they are dirtied again by the next {@link #markDirtySlots(int, long) markDirty}, which submits the chunk.
+     *
+     * @param slots the bit set of the slots
+     */
+    public void markFailed(int slots) {
+        failedSlots.getAndUpdate(value -> value | slots);
     }
 
-    public void markNotDirty() {
-        dirty.set(false);
+    /**
+     * {@return {@code true} if the delay given by markDirty has elapsed}
+     *
+     * @param now the current {@link System#nanoTime()}
+     */
+    public boolean isDirtyReady(long now) {
+        return now - dirtyReadyAt >= 0;
     }
 
+    /**
+     * Takes the dirty slots of the current level to compile. The dirty slots of the other levels are kept.
+     *
+     * @return the bit set of the dirty slots
+     */
+    public int takeDirtySlots() {
+        final int mask = slotMask(lodLevel);
+        return dirtySlots.getAndUpdate(value -> value & ~mask) & mask;
+    }
+
+    /**
+     * {@return {@code true} if any slot of the current level is dirty}
+     */
     public boolean dirty() {
-        return dirty.get();
+        return (dirtySlots.get() & slotMask(lodLevel)) != 0;
     }
 
-    public void setSubmitted(boolean submitted) {
-        this.submitted.set(submitted);
+    /**
+     * {@return the bit set of the slots of the given sections of the given layer}
+     *
+     * @param layer    the render layer
+     * @param sections the bit set of the sections
+     */
+    public static int layerSlots(BlockRenderLayer layer, int sections) {
+        return sections << (layer.id() * SECTION_COUNT);
+    }
+
+    /**
+     * {@return the bit set of the slots of the given sections of all layers}
+     *
+     * @param sections the bit set of the sections
+     */
+    public static int allLayers(int sections) {
+        int slots = 0;
+        for (int i = 0; i < BlockRenderLayer.COUNT; i++) {
+            slots |= sections << (i * SECTION_COUNT);
+        }
+        return slots;
+    }
+
+    private static int slotMask(int level) {
+        return allLayers(sectionMask(level));
+    }
+
+    /**
+     * {@return the bit set of the sections drawn at the given LOD level}
+     *
+     * @param level the level; 0 is the full detail
+     */
+    public static int sectionMask(int level) {
+        return level == 0 ? ALL_SLABS : 1 << (SLAB_COUNT + level - 1);
+    }
+
+    /**
+     * {@return the LOD level to be compiled and drawn}
+     */
+    public int lodLevel() {
+        return lodLevel;
     }
 
-    public boolean submitted() {
-        return submitted.get();
+    /**
+     * Sets the LOD level to be compiled and drawn.
+     * The mesh of the previous level is still drawn until all slots of the new level are uploaded.
+     *
+     * @param level the level
+     * @return {@code true} if any slot of the new level is dirty, that is, the chunk should be submitted
+     */
+    public boolean setLodLevel(int level) {
+        lodLevel = level;
+        return dirty();
+    }
+
+    /**
+     * {@return the bit set of the slabs that contain the blocks between the given y, clamped to this chunk}
+     *
+     * @param minY the minimum y, inclusive
+     * @param maxY the maximum y, inclusive
+     */
+    public int slabMask(int minY, int maxY) {
+        final int from = Math.max(minY, y0()) - y0();
+        final int to = Math.min(maxY, y1()) - y0();
+        if (from > to) return 0;
+        final int first = from / SLAB_HEIGHT;
+        final int last = to / SLAB_HEIGHT;
+        return (ALL_SLABS >>> (SLAB_COUNT - 1 - last + first)) << first;
+    }
+
+    /**
+     * {@return the position the translucent quads are sorted from}
+     */
+    public Vector3dc sortOrigin() {
+        return sortOrigin;
+    }
+
+    /**
+     * Sets the position the translucent quads are sorted from in the next compilation.
+     */
+    public void setSortOrigin(double x, double y, double z) {
+        sortOrigin = new Vector3d(x, y, z);
+    }
+
+    /**
+     * Requests sorting the translucent quads again if the camera has moved away from the sort origin,
+     * by at least {@value #RESORT_DISTANCE} blocks and {@value #RESORT_DISTANCE_RATIO} of its distance to the chunk center.
+     * Only the indices of the uploaded slots are sorted again, by the next compilation.
+     * Must be called from the render thread.
+     *
+     * @param x the x position of the camera
+     * @param y the y position of the camera
+     * @param z the z position of the camera
+     * @return {@code true} if the chunk must be submitted to sort the quads again
+     */
+    public boolean requestResort(double x, double y, double z) {
+        if (states.indexCount(BlockRenderLayer.TRANSLUCENT) == 0) return false;
+        final double threshold = Math.max(RESORT_DISTANCE, RESORT_DISTANCE_RATIO * Math.sqrt(distanceSqr(x, y, z)));
+        if (sortOrigin.distanceSquared(x, y, z) <= threshold * threshold) return false;
+        setSortOrigin(x, y, z);
+        return resortRequested.compareAndSet(false, true);
+    }
+
+    /**
+     * Takes the request of sorting the translucent quads again.
+     *
+     * @return {@code true} if the quads were requested to be sorted again
+     */
+    public boolean takeResortRequest() {
+        return resortRequested.getAndSet(false);
     }
 
     public CompileStates states() {
         return states;
     }
 
+    public double centerX() {
+        return (x0() + x1() + 1) * 0.5;
+    }
+
+    public double centerY() {
+        return (y0() + y1() + 1) * 0.5;
+    }
+
+    public double centerZ() {
+        return (z0() + z1() + 1) * 0.5;
+    }
+
+    public double distanceSqr(double x, double y, double z) {
+        final double dx = centerX() - x;
+        final double dy = centerY() - y;
+        final double dz = centerZ() - z;
+        return dx * dx + dy * dy + dz * dz;
+    }
+
     public double distanceSqr(Entity entity) {
-        return entity.position().distanceSquared(x(), y(), z());
+        final Vector3d position = entity.position();
+        return distanceSqr(position.x(), position.y(), position.z());
+    }
+
+    /**
+     * Computes the priority of this chunk to be compiled or uploaded. A lower value is more urgent.
+     *
+     * @param x       the x position of the camera
+     * @param y       the y position of the camera
+     * @param z       the z position of the camera
+     * @param frustum the frustum of the camera
+     * @return the priority
+     */
+    public double priority(double x, double y, double z, FrustumIntersection frustum) {
+        final double distanceSqr = distanceSqr(x, y, z);
+        return isVisible(frustum) ? distanceSqr : distanceSqr + INVISIBLE_PRIORITY;
+    }
+
+    /**
+     * Computes and stores the priority. Must be called from the render thread.
+     *
+     * @see #priority(double, double, double, FrustumIntersection)
+     */
+    public void updatePriority(double x, double y, double z, FrustumIntersection frustum) {
+        lastPriority = priority(x, y, z, frustum);
+    }
+
+    /**
+     * {@return the priority computed by the last call to updatePriority}
+     */
+    public double lastPriority() {
+        return lastPriority;
     }
 
     public boolean isVisible(FrustumIntersection frustum) {
@@ -23,7 +23,9 @@ import cuboidx.client.gl.GLDrawMode;
 import cuboidx.client.gl.GLStateMgr;
 import cuboidx.client.gl.RenderSystem;
 import cuboidx.client.render.GraphicsUtil;
+import cuboidx.client.render.RenderCommandList;
 import cuboidx.client.render.Tessellator;
+import cuboidx.client.texture.TextureArray;
 import cuboidx.client.texture.TextureAtlas;
 import cuboidx.util.math.AABBox;
 import cuboidx.util.math.Direction;
@@ -34,23 +36,30 @@ import cuboidx.world.block.BlockType;
 import cuboidx.world.chunk.Chunk;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.jetbrains.annotations.NotNull;
 import org.joml.*;
 import overrungl.opengl.GL;
 
 import java.lang.Math;
 import java.lang.Runtime;
-import java.util.concurrent.*;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * The world renderer renders the world in {@link cuboidx.world.chunk.Chunk chunks}.
  * <p>
- * Each chunk is compiled in certain {@link BlockRenderLayer layers}.<br>
- * The world renderer first renders opaque blocks, then renders translucent blocks from far to near.
+ * Each chunk is compiled in certain {@link BlockRenderLayer layers}, and each layer is drawn from its own arena with its own shader.<br>
+ * The world renderer first renders opaque blocks, then cutout blocks, then renders translucent blocks from far to near.
  * <p>
  * Chunks outside the view of the player are not rendered.
+ * The visible chunks are found and their draws are recorded by the {@link ChunkFramePreparer frame preparer} on a worker thread,
+ * while the render thread compiles and uploads the chunks.
+ * Chunks far from the camera are drawn with the {@link ChunkLodMesher downsampled} meshes;
+ * a chunk has to move past a margin around the {@link #setLodDistance(int, double) LOD distance} to switch back,
+ * so that the chunks near the distance do not switch every frame.
  * <p>
  * Chunks are compiled in multi-thread: the player modifies the world,
  * and the {@link ChunkCompiler compiler} receives the modification.<br>
@@ -61,17 +70,33 @@ import java.util.concurrent.atomic.AtomicReference;
  */
 public final class WorldRenderer implements WorldListener, AutoCloseable {
     private static final Logger logger = LogManager.getLogger();
-    private static final int MAX_COMPILE_COUNT = Runtime.getRuntime().availableProcessors() + 1;
+    private static final int COMPILE_WORKER_COUNT = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+    private static final int STAGING_REGION_COUNT = 16;
+    private static final int MAX_PENDING_UPLOADS = 64;
+    /**
+     * The window in which the non-interactive edits to a chunk are coalesced.
+     */
+    private static final long DEBOUNCE_NANOS = 100_000_000L;
+    /**
+     * The margin around the LOD distances in blocks.
+     */
+    private static final double LOD_HYSTERESIS = 16.0;
     private final CuboidX client;
     private final World world;
     private final int xChunks, yChunks, zChunks;
     private final ClientChunk[] chunks;
-    private final ChunkCompiler compiler = new ChunkCompiler();
-    private final ExecutorService threadPool;
+    private final ChunkBufferArena[] chunkArenas = new ChunkBufferArena[BlockRenderLayer.COUNT];
+    private final ChunkCompiler compiler = new ChunkCompiler(STAGING_REGION_COUNT);
+    private final ChunkUploadQueue uploadQueue = new ChunkUploadQueue();
+    private final ChunkCompileScheduler scheduler;
+    private final ChunkFramePreparer framePreparer;
+    private final Queue<ClientChunk> dirtyChunks = new ConcurrentLinkedQueue<>();
+    private final Set<ClientChunk> urgentChunks = ConcurrentHashMap.newKeySet();
     private final AtomicReference<HitResult> hitResult = new AtomicReference<>();
     private final Vector3f hitOrigin = new Vector3f();
     private final Vector3f hitOrientation = new Vector3f();
     private final Vector2d hitNearFar = new Vector2d();
+    private volatile double[] lodDistances = {128.0, 192.0};
     private volatile boolean shouldRenderDebugHud = false;
 
     public WorldRenderer(CuboidX client, World world) {
@@ -81,11 +106,18 @@ public final class WorldRenderer implements WorldListener, AutoCloseable {
         this.yChunks = Math.ceilDiv(world.height(), Chunk.SIZE);
         this.zChunks = Math.ceilDiv(world.depth(), Chunk.SIZE);
         this.chunks = new ClientChunk[xChunks * yChunks * zChunks];
+        for (BlockRenderLayer layer : BlockRenderLayer.list()) {
+            // most blocks are opaque
+            this.chunkArenas[layer.id()] = new ChunkBufferArena(layer,
+                layer == BlockRenderLayer.OPAQUE ? ChunkBufferArena.DEFAULT_VERTEX_CAPACITY : ChunkBufferArena.DEFAULT_VERTEX_CAPACITY / 16,
+                chunks.length * ClientChunk.SLAB_COUNT);
+        }
         for (int x = 0; x < xChunks; x++) {
             for (int y = 0; y < yChunks; y++) {
                 for (int z = 0; z < zChunks; z++) {
-                    this.chunks[xChunks * (y * zChunks + z) + x] = new ClientChunk(client,
+                    final ClientChunk chunk = new ClientChunk(client,
                         world,
+                        chunkArenas,
                         x, y, z,
                         x * Chunk.SIZE,
                         y * Chunk.SIZE,
@@ -94,55 +126,96 @@ public final class WorldRenderer implements WorldListener, AutoCloseable {
                         Math.min((y + 1) * Chunk.SIZE, world.height()) - 1,
                         Math.min((z + 1) * Chunk.SIZE, world.depth()) - 1
                     );
+                    this.chunks[xChunks * (y * zChunks + z) + x] = chunk;
+                    // chunks are created dirty
+                    dirtyChunks.offer(chunk);
                 }
             }
         }
 
-        threadPool = new ThreadPoolExecutor(MAX_COMPILE_COUNT - 1,
-            MAX_COMPILE_COUNT,
-            10L,
-            TimeUnit.SECONDS,
-            new SynchronousQueue<>(),
-            new ThreadFactory() {
-                private final AtomicInteger threadNumber = new AtomicInteger(1);
-
-                @Override
-                public Thread newThread(@NotNull Runnable r) {
-                    return new Thread(r, STR. "Chunk-worker-thread-\{ threadNumber.getAndIncrement() }" );
-                }
-            },
-            (r, executor) -> {
-                if (!executor.isShutdown() && r instanceof Future<?> future) {
-                    future.cancel(true);
-                }
-            });
+        framePreparer = new ChunkFramePreparer(chunks, xChunks, yChunks, zChunks, world.width(), world.height(), world.depth());
+        scheduler = new ChunkCompileScheduler(compiler, uploadQueue, COMPILE_WORKER_COUNT, MAX_PENDING_UPLOADS);
 
         world.addListener(this);
     }
 
+    /**
+     * Submits the dirty chunks whose debounce window has elapsed.
+     * The cost is proportional to the count of the chunks dirtied since the last call.
+     * Nothing is submitted until the block textures are ready.
+     */
     public void compileChunks() {
-        if (threadPool.isShutdown()) return;
-        for (ClientChunk chunk : chunks) {
-            if (chunk.dirty()) {
-                CompletableFuture.supplyAsync(() -> {
-                    chunk.setSubmitted(true);
-                    final var builder = compiler.borrow(BlockRenderLayer.OPAQUE);
-                    chunk.compile(builder.get());
-                    compiler.returning(builder);
-                    return chunk;
-                }, threadPool).thenAccept(clientChunk -> {
-                    final ClientChunk.CompileStates states = clientChunk.states();
-                    states.setUploaded(false);
-                    clientChunk.setSubmitted(false);
-                    clientChunk.markNotDirty();
-                    states.markCompiled();
-                });
+        if (!client.gameRenderer().blockTexturesReady()) return;
+        final Vector3d cameraPos = client.camera().lerpPosition();
+        final FrustumIntersection frustum = RenderSystem.frustum();
+        final long now = System.nanoTime();
+        ClientChunk chunk;
+        // the chunks are queued in the order of their ready time
+        while ((chunk = dirtyChunks.peek()) != null) {
+            if (chunk.dirty() && !chunk.isDirtyReady(now)) break;
+            dirtyChunks.poll();
+            if (chunk.isEmpty()) {
+                scheduler.cancel(chunk);
+                chunk.release();
+            } else {
+                chunk.setLodLevel(selectLodLevel(chunk, cameraPos.x(), cameraPos.y(), cameraPos.z()));
+                chunk.setSortOrigin(cameraPos.x(), cameraPos.y(), cameraPos.z());
+                if (chunk.dirty()) {
+                    scheduler.submit(chunk, chunk.priority(cameraPos.x(), cameraPos.y(), cameraPos.z(), frustum));
+                }
+            }
+        }
+    }
+
+    /**
+     * Selects the LOD level of the given chunk by the distance to the camera.
+     * A chunk keeps its level until it is farther than the margin from the distance.
+     */
+    private int selectLodLevel(ClientChunk chunk, double x, double y, double z) {
+        final double[] distances = lodDistances;
+        final double distance = Math.sqrt(chunk.distanceSqr(x, y, z));
+        final int current = chunk.lodLevel();
+        int level = 0;
+        for (int i = 0; i < distances.length; i++) {
+            final double threshold = current > i ? distances[i] - LOD_HYSTERESIS : distances[i] + LOD_HYSTERESIS;
+            if (distance > threshold) level = i + 1;
+        }
+        return level;
+    }
+
+    /**
+     * Updates the LOD level of a visible chunk, and submits it if the sections of the new level are dirty.
+     */
+    private void updateLodLevel(ClientChunk chunk, double x, double y, double z) {
+        final int level = selectLodLevel(chunk, x, y, z);
+        if (level != chunk.lodLevel() && chunk.setLodLevel(level)) {
+            scheduler.submit(chunk, chunk.distanceSqr(x, y, z));
+        }
+    }
+
+    /**
+     * Compiles and uploads the chunks edited by the player synchronously, so that the edits are visible in this frame.
+     */
+    private void compileUrgentChunks() {
+        if (urgentChunks.isEmpty() || !client.gameRenderer().blockTexturesReady()) return;
+        final Vector3d cameraPos = client.camera().lerpPosition();
+        for (var iterator = urgentChunks.iterator(); iterator.hasNext(); ) {
+            final ClientChunk chunk = iterator.next();
+            iterator.remove();
+            if (chunk.isEmpty()) {
+                scheduler.cancel(chunk);
+                chunk.release();
+                continue;
             }
+            // a running task is not cancelled, since it may have taken other slots; its older meshes are skipped by version
+            chunk.setSortOrigin(cameraPos.x(), cameraPos.y(), cameraPos.z());
+            chunk.compile(compiler, chunk.takeDirtySlots(), false, () -> false).forEach(chunk.states()::addPendingMesh);
+            chunk.upload();
         }
     }
 
     public void renderChunks(double partialTick) {
-        compileChunks();
+        compiler.pollStaging();
 
         // initialize states
         RenderSystem.enableCullFace();
@@ -156,20 +229,43 @@ public final class WorldRenderer implements WorldListener, AutoCloseable {
         );
         client.camera().lerp(partialTick);
         client.camera().viewMatrix(RenderSystem.viewMatrix());
+        RenderSystem.uploadCamera();
         RenderSystem.updateFrustum();
-        final int currentProgram = GLStateMgr.currentProgram();
-        RenderSystem.useProgram(client.gameRenderer().positionColorTextureProgram(), RenderSystem::programSetupMatrix);
-        RenderSystem.bindTexture2D(client.textureManager().get(TextureAtlas.BLOCK_ATLAS));
+        final Vector3d cameraPos = client.camera().lerpPosition();
+        // cull and sort on the worker while compiling and uploading
+        framePreparer.prepare(cameraPos.x(), cameraPos.y(), cameraPos.z(), RenderSystem.projectionViewMatrix());
+        final ChunkFramePreparer.Frame frame;
+        try {
+            compileUrgentChunks();
+            compileChunks();
+            uploadQueue.upload(cameraPos.x(), cameraPos.y(), cameraPos.z(), RenderSystem.frustum());
+            for (ChunkBufferArena arena : chunkArenas) {
+                arena.nextFrame();
+                arena.clearDraws();
+            }
+        } finally {
+            // the preparation is always awaited, so the next frame can prepare again
+            frame = framePreparer.await();
+        }
 
         // render
-        for (ClientChunk chunk : chunks) {
-            if (chunk.isVisible(RenderSystem.frustum())) {
-                chunk.render();
+        final int currentProgram = GLStateMgr.currentProgram();
+        bindBlockTexture(true);
+        final List<ClientChunk> visibleChunks = frame.chunks();
+        final boolean texturesReady = client.gameRenderer().blockTexturesReady();
+        for (ClientChunk chunk : visibleChunks) {
+            if (chunk.isEmpty() || !texturesReady) continue;
+            updateLodLevel(chunk, cameraPos.x(), cameraPos.y(), cameraPos.z());
+            if (chunk.requestResort(cameraPos.x(), cameraPos.y(), cameraPos.z())) {
+                // sorted by a worker, and uploaded through the upload queue
+                scheduler.submit(chunk, chunk.distanceSqr(cameraPos.x(), cameraPos.y(), cameraPos.z()));
             }
+            chunk.updateDrawnLevel();
         }
+        submit(frame.commands(), visibleChunks);
 
         // reset states
-        RenderSystem.bindTexture2D(0);
+        bindBlockTexture(false);
         RenderSystem.useProgram(currentProgram);
 
         RenderSystem.disableCullFace();
@@ -178,6 +274,51 @@ public final class WorldRenderer implements WorldListener, AutoCloseable {
         getHitBlock();
     }
 
+    /**
+     * Binds the block textures, which are in a texture array if {@link BlockRenderLayer#TEXTURE_ARRAY} is set, or unbinds them.
+     */
+    private void bindBlockTexture(boolean bind) {
+        if (BlockRenderLayer.TEXTURE_ARRAY) {
+            RenderSystem.bindTexture2DArray(bind ? client.textureManager().get(TextureArray.BLOCK_ARRAY).id() : 0);
+        } else {
+            RenderSystem.bindTexture2D(bind ? client.textureManager().get(TextureAtlas.BLOCK_ATLAS).id() : 0);
+        }
+    }
+
+    /**
+     * Submits the sorted packets of a frame. The draws of a state are collected into the arena of the layer,
+     * and drawn with a single call once the state changes.
+     */
+    private void submit(RenderCommandList commands, List<ClientChunk> visibleChunks) {
+        int state = -1;
+        for (int i = 0, size = commands.size(); i < size; i++) {
+            final int next = commands.state(i);
+            if (next != state) {
+                if (state >= 0) drawLayer(BlockRenderLayer.list().get(state));
+                state = next;
+            }
+            final ClientChunk chunk = visibleChunks.get(commands.target(i));
+            if (!chunk.isEmpty()) {
+                chunk.render(BlockRenderLayer.list().get(state));
+            }
+        }
+        if (state >= 0) drawLayer(BlockRenderLayer.list().get(state));
+        RenderSystem.depthMask(true);
+        RenderSystem.disableBlend();
+    }
+
+    private void drawLayer(BlockRenderLayer layer) {
+        final ChunkBufferArena arena = chunkArenas[layer.id()];
+        if (arena.drawCount() == 0) return;
+        if (layer == BlockRenderLayer.TRANSLUCENT) {
+            RenderSystem.enableBlend();
+            RenderSystem.defaultBlendFunc();
+            RenderSystem.depthMask(false);
+        }
+        RenderSystem.useProgram(client.gameRenderer().blockProgram(layer), RenderSystem::programSetupMatrix);
+        arena.draw();
+    }
+
     public void renderHitResult() {
         final HitResult result = hitResult();
         if (result != null && !result.missed()) {
@@ -201,7 +342,7 @@ public final class WorldRenderer implements WorldListener, AutoCloseable {
             final int currentProgram = GLStateMgr.currentProgram();
             RenderSystem.useProgram(client.gameRenderer().positionColorProgram(), RenderSystem::programSetupMatrix);
 
-            final Tessellator t = Tessellator.getInstance();
+            final Tessellator t = client.gameRenderer().tessellator();
             t.begin(GLDrawMode.LINES, false);
             t.indices(
                 // x
@@ -240,7 +381,7 @@ public final class WorldRenderer implements WorldListener, AutoCloseable {
         final int currentProgram = GLStateMgr.currentProgram();
         RenderSystem.useProgram(client.gameRenderer().positionColorProgram(), RenderSystem::programSetupMatrix);
         RenderSystem.modelMatrix().popMatrix();
-        final Tessellator t = Tessellator.getInstance();
+        final Tessellator t = client.gameRenderer().tessellator();
         if (shouldRenderDebugHud()) {
             RenderSystem.enableDepthTest(GL.LEQUAL);
 
@@ -277,15 +418,15 @@ public final class WorldRenderer implements WorldListener, AutoCloseable {
             .rotateY((float) Math.toRadians(-45))
             .scale(32f);
         final int currentProgram = GLStateMgr.currentProgram();
-        RenderSystem.useProgram(client.gameRenderer().positionColorTextureProgram(), RenderSystem::programSetupMatrix);
+        RenderSystem.useProgram(client.gameRenderer().blockItemProgram(), RenderSystem::programSetupMatrix);
         RenderSystem.modelMatrix().popMatrix();
 
-        RenderSystem.bindTexture2D(client.textureManager().get(TextureAtlas.BLOCK_ATLAS));
-        final Tessellator t = Tessellator.getInstance();
+        bindBlockTexture(true);
+        final Tessellator t = client.gameRenderer().tessellator();
         t.begin(GLDrawMode.TRIANGLES, false);
         client.blockRenderer().renderBlock(t, client.player().mainHandItem(), -1, -1, -1);
         t.end();
-        RenderSystem.bindTexture2D(0);
+        bindBlockTexture(false);
 
         RenderSystem.useProgram(currentProgram);
 
@@ -293,65 +434,102 @@ public final class WorldRenderer implements WorldListener, AutoCloseable {
         RenderSystem.disableDepthTest();
     }
 
+    /**
+     * Picks the block looked at by walking the blocks along the view ray in order (Amanatides and Woo),
+     * stopping at the first block whose outline shape is hit. A full cube is hit on the face the ray entered through,
+     * so only partial shapes and the block containing the camera are tested against their boxes.
+     * This allocates nothing unless the result changes.
+     */
     private void getHitBlock() {
-        final int pickRange = 5;
-        double closestDistance = Double.POSITIVE_INFINITY;
-        BlockType target = null;
-        int targetX = 0;
-        int targetY = 0;
-        int targetZ = 0;
-        AABBox finalBox = null;
-        final FrustumIntersection frustum = RenderSystem.frustum();
+        final double pickRange = 5.0;
         final FrustumRayBuilder ray = RenderSystem.ray();
         ray.origin(hitOrigin);
         ray.dir(0.5f, 0.5f, hitOrientation);
-
-        final Vector3d playerPos = client.player().position();
-        final int orgX = (int) Math.floor(playerPos.x());
-        final int orgY = (int) Math.floor(playerPos.y());
-        final int orgZ = (int) Math.floor(playerPos.z());
-        final int x0 = orgX - pickRange;
-        final int y0 = orgY - pickRange;
-        final int z0 = orgZ - pickRange;
-        final int x1 = orgX + pickRange;
-        final int y1 = orgY + pickRange;
-        final int z1 = orgZ + pickRange;
-
-        for (int x = x0; x <= x1; x++) {
-            for (int y = y0; y <= y1; y++) {
-                for (int z = z0; z <= z1; z++) {
-                    final BlockType block = world.getBlock(x, y, z);
-                    final AABBox box = block.outlineShape().move(x, y, z);
-                    if (!box.isEmpty() && box.test(frustum)) {
-                        if (Intersectiond.intersectRayAab(
-                            hitOrigin.x(), hitOrigin.y(), hitOrigin.z(),
-                            hitOrientation.x(), hitOrientation.y(), hitOrientation.z(),
-                            box.minX(), box.minY(), box.minZ(),
-                            box.maxX(), box.maxY(), box.maxZ(),
-                            hitNearFar
-                        ) && hitNearFar.x < closestDistance) {
-                            closestDistance = hitNearFar.x();
-                            target = block;
-                            targetX = x;
-                            targetY = y;
-                            targetZ = z;
-                            finalBox = box;
-                        }
-                    }
+        hitOrientation.normalize();
+
+        final double originX = hitOrigin.x();
+        final double originY = hitOrigin.y();
+        final double originZ = hitOrigin.z();
+        final double dirX = hitOrientation.x();
+        final double dirY = hitOrientation.y();
+        final double dirZ = hitOrientation.z();
+        int x = (int) Math.floor(originX);
+        int y = (int) Math.floor(originY);
+        int z = (int) Math.floor(originZ);
+        final int stepX = dirX > 0 ? 1 : (dirX < 0 ? -1 : 0);
+        final int stepY = dirY > 0 ? 1 : (dirY < 0 ? -1 : 0);
+        final int stepZ = dirZ > 0 ? 1 : (dirZ < 0 ? -1 : 0);
+        // the distance along the ray to cross a block on each axis
+        final double deltaX = stepX == 0 ? Double.POSITIVE_INFINITY : Math.abs(1.0 / dirX);
+        final double deltaY = stepY == 0 ? Double.POSITIVE_INFINITY : Math.abs(1.0 / dirY);
+        final double deltaZ = stepZ == 0 ? Double.POSITIVE_INFINITY : Math.abs(1.0 / dirZ);
+        // the distance along the ray to the next block boundary on each axis
+        double maxX = stepX == 0 ? Double.POSITIVE_INFINITY : (stepX > 0 ? x + 1 - originX : originX - x) * deltaX;
+        double maxY = stepY == 0 ? Double.POSITIVE_INFINITY : (stepY > 0 ? y + 1 - originY : originY - y) * deltaY;
+        double maxZ = stepZ == 0 ? Double.POSITIVE_INFINITY : (stepZ > 0 ? z + 1 - originZ : originZ - z) * deltaZ;
+        // the face the ray entered the current block through; null in the block containing the camera
+        Direction side = null;
+        double distance = 0.0;
+
+        while (distance <= pickRange) {
+            final BlockType block = world.getBlock(x, y, z);
+            final AABBox shape = block.outlineShape();
+            if (!shape.isEmpty()) {
+                if (side != null && shape.equals(AABBox.fullCube())) {
+                    setHitResult(side, x, y, z, block);
+                    return;
                 }
+                // test the shape in the space of the block
+                final double localX = originX - x;
+                final double localY = originY - y;
+                final double localZ = originZ - z;
+                if (Intersectiond.intersectRayAab(
+                    localX, localY, localZ,
+                    dirX, dirY, dirZ,
+                    shape.minX(), shape.minY(), shape.minZ(),
+                    shape.maxX(), shape.maxY(), shape.maxZ(),
+                    hitNearFar
+                ) && hitNearFar.x() <= pickRange) {
+                    setHitResult(shape.testSide(localX, localY, localZ, dirX, dirY, dirZ), x, y, z, block);
+                    return;
+                }
+            }
+
+            if (maxX < maxY && maxX < maxZ) {
+                x += stepX;
+                distance = maxX;
+                maxX += deltaX;
+                side = stepX > 0 ? Direction.WEST : Direction.EAST;
+            } else if (maxY < maxZ) {
+                y += stepY;
+                distance = maxY;
+                maxY += deltaY;
+                side = stepY > 0 ? Direction.DOWN : Direction.UP;
+            } else {
+                z += stepZ;
+                distance = maxZ;
+                maxZ += deltaZ;
+                side = stepZ > 0 ? Direction.NORTH : Direction.SOUTH;
             }
         }
+        hitResult.set(null);
+    }
 
-        hitResult.set(target == null ? null : new HitResult(
-            false,
-            finalBox.testSide(
-                hitOrigin.x(), hitOrigin.y(), hitOrigin.z(),
-                hitOrientation.x(), hitOrientation.y(), hitOrientation.z()
-            ),
-            targetX,
-            targetY,
-            targetZ,
-            target));
+    private void setHitResult(Direction side, int x, int y, int z, BlockType block) {
+        final HitResult last = hitResult.get();
+        if (last != null &&
+            last.side() == side &&
+            last.x() == x &&
+            last.y() == y &&
+            last.z() == z &&
+            last.block() == block) {
+            return;
+        }
+        hitResult.set(new HitResult(false, side, x, y, z, block));
+    }
+
+    public ChunkUploadQueue uploadQueue() {
+        return uploadQueue;
     }
 
     public HitResult hitResult() {
@@ -379,26 +557,138 @@ public final class WorldRenderer implements WorldListener, AutoCloseable {
         this.shouldRenderDebugHud = shouldRenderDebugHud;
     }
 
-    @Override
-    public void onBlockChanged(int x, int y, int z, BlockType newBlock) {
+    /**
+     * Sets the distance beyond which the chunks are drawn at the given LOD level.
+     *
+     * @param level    the level, from 1 to {@code ChunkLodMesher.LEVEL_COUNT - 1}
+     * @param distance the distance in blocks; must not be less than the distance of the previous level
+     */
+    public void setLodDistance(int level, double distance) {
+        final double[] distances = lodDistances.clone();
+        if (level <= 0 || level > distances.length) {
+            throw new IllegalArgumentException(STR."Invalid LOD level: \{level}");
+        }
+        distances[level - 1] = distance;
+        for (int i = 1; i < distances.length; i++) {
+            if (distances[i] < distances[i - 1]) {
+                throw new IllegalArgumentException(STR."The LOD distance of level \{i + 1} is less than level \{i}");
+            }
+        }
+        lodDistances = distances;
+    }
+
+    public double lodDistance(int level) {
+        return lodDistances[level - 1];
+    }
+
+    private void markDirty(ClientChunk chunk, int slabs, boolean interactive) {
+        if (slabs == 0) return;
+        // the downsampled meshes cover all slabs
+        markSectionsDirty(chunk, slabs | ClientChunk.LOD_SECTIONS, interactive);
+    }
+
+    private void markSectionsDirty(ClientChunk chunk, int sections, boolean interactive) {
+        if (chunk == null) return;
+        if (interactive) {
+            chunk.markDirty(sections, 0L);
+            urgentChunks.add(chunk);
+        } else if (chunk.markDirty(sections, DEBOUNCE_NANOS)) {
+            dirtyChunks.offer(chunk);
+        }
+    }
+
+    /**
+     * Updates the non-air, layer and exposed face counts of the chunks affected by the changed block.
+     */
+    private void updateBlockCounts(ClientChunk chunk, int x, int y, int z, BlockType oldBlock, BlockType newBlock) {
+        if (oldBlock == newBlock) return;
+        if (oldBlock.air() != newBlock.air()) {
+            chunk.addNonAirCount(newBlock.air() ? -1 : 1);
+        }
+        if (!oldBlock.air()) chunk.addLayerBlockCount(BlockRenderLayers.get(oldBlock), -1);
+        if (!newBlock.air()) chunk.addLayerBlockCount(BlockRenderLayers.get(newBlock), 1);
+        int ownFaces = 0;
         for (Direction direction : Direction.list()) {
-            final ClientChunk chunk = getChunkByBlockPos(
-                x + direction.axisX(),
-                y + direction.axisY(),
-                z + direction.axisZ()
-            );
-            if (chunk != null) chunk.markDirty();
+            final int nx = x + direction.axisX();
+            final int ny = y + direction.axisY();
+            final int nz = z + direction.axisZ();
+            if (!world.isInBound(nx, ny, nz)) {
+                ownFaces += (newBlock.air() ? 0 : 1) - (oldBlock.air() ? 0 : 1);
+                continue;
+            }
+            final BlockType neighborBlock = world.getBlock(nx, ny, nz);
+            ownFaces += visibleFaces(newBlock, neighborBlock) - visibleFaces(oldBlock, neighborBlock);
+            // the face of the neighbor towards the changed block
+            final int neighborFaces = visibleFaces(neighborBlock, newBlock) - visibleFaces(neighborBlock, oldBlock);
+            if (neighborFaces != 0) {
+                final ClientChunk neighbor = getChunkByBlockPos(nx, ny, nz);
+                if (neighbor != null) neighbor.addExposedFaceCount(neighborFaces);
+            }
         }
+        chunk.addExposedFaceCount(ownFaces);
+    }
+
+    private static int visibleFaces(BlockType block, BlockType neighbor) {
+        return BlockRenderLayers.isFaceVisible(block, neighbor) ? 1 : 0;
+    }
+
+    @Override
+    public void onBlockChanged(int x, int y, int z, BlockType oldBlock, BlockType newBlock, boolean interactive) {
         final ClientChunk chunk = getChunkByBlockPos(x, y, z);
-        if (chunk != null) chunk.markDirty();
+        if (chunk == null) return;
+        updateBlockCounts(chunk, x, y, z, oldBlock, newBlock);
+        if (BlockRenderLayers.isOpaque(oldBlock) != BlockRenderLayers.isOpaque(newBlock)) {
+            chunk.markOpacityChanged();
+        }
+        // the faces of the blocks above and below may be in the adjacent slabs
+        markDirty(chunk, chunk.slabMask(y - 1, y + 1), interactive);
+        // the neighbors only see the opacity of the border,
+        // except that the faces between the same non-opaque blocks are hidden
+        final int opacityFaces = chunk.updateBorderOpacity(x, y, z, newBlock);
+        final int changedFaces = oldBlock != newBlock &&
+                                 !BlockRenderLayers.isOpaque(oldBlock) &&
+                                 !BlockRenderLayers.isOpaque(newBlock) ?
+            ChunkBorderMask.borderFaces(chunk, x, y, z) :
+            opacityFaces;
+        // the border cells of the downsampled meshes of the neighbors vote the blocks near the faces
+        final int lodFaces = oldBlock != newBlock ?
+            ChunkBorderMask.borderFaces(chunk, x, y, z, ChunkLodMesher.MAX_CELL_SIZE) :
+            0;
+        if ((changedFaces | lodFaces) == 0) return;
+        for (Direction direction : Direction.list()) {
+            final int face = 1 << direction.id();
+            if ((changedFaces & face) != 0) {
+                final int ny = y + direction.axisY();
+                final ClientChunk neighbor = getChunkByBlockPos(
+                    x + direction.axisX(),
+                    ny,
+                    z + direction.axisZ()
+                );
+                if (neighbor != null) {
+                    markDirty(neighbor, neighbor.slabMask(ny, ny), interactive);
+                }
+            } else if ((lodFaces & face) != 0) {
+                final ClientChunk neighbor = getChunkByBlockPos(
+                    x + direction.axisX() * ChunkLodMesher.MAX_CELL_SIZE,
+                    y + direction.axisY() * ChunkLodMesher.MAX_CELL_SIZE,
+                    z + direction.axisZ() * ChunkLodMesher.MAX_CELL_SIZE
+                );
+                // only seen from far away, so not compiled urgently
+                markSectionsDirty(neighbor, ClientChunk.LOD_SECTIONS, false);
+            }
+        }
     }
 
     @Override
     public void close() {
-        threadPool.close();
+        framePreparer.close();
+        scheduler.close();
         for (ClientChunk chunk : chunks) {
             chunk.close();
         }
+        for (ChunkBufferArena arena : chunkArenas) {
+            arena.close();
+        }
         compiler.close();
         logger.info("Cleaned up WorldRenderer");
     }
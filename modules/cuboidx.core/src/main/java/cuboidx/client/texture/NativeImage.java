@@ -31,7 +31,12 @@ import java.io.IOException;
 import java.lang.foreign.Arena;
 import java.lang.foreign.MemorySegment;
 import java.lang.foreign.ValueLayout;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * @author squid233
@@ -152,6 +157,37 @@ public /* value */ record NativeImage(int width, int height, MemorySegment data,
         }
     }
 
+    /**
+     * Loads the images in parallel, an image a virtual thread, and waits for all of them.
+     *
+     * @param paths the paths of the images
+     * @return the images, in the order of the paths
+     */
+    public static List<NativeImage> loadAll(List<String> paths) {
+        final List<Future<NativeImage>> futures = new ArrayList<>(paths.size());
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (String path : paths) {
+                futures.add(executor.submit(() -> load(path)));
+            }
+        }
+        final List<NativeImage> images = new ArrayList<>(futures.size());
+        for (int i = 0, size = futures.size(); i < size; i++) {
+            final Future<NativeImage> future = futures.get(i);
+            switch (future.state()) {
+                case SUCCESS -> images.add(future.resultNow());
+                case FAILED -> {
+                    logger.error("Failed to load the image '{}'", paths.get(i), future.exceptionNow());
+                    images.add(fail());
+                }
+                default -> {
+                    logger.error("The loading of the image '{}' was cancelled", paths.get(i));
+                    images.add(fail());
+                }
+            }
+        }
+        return images;
+    }
+
     public <T> Region<T> toRegion(T userdata) {
         return new Region<>(this, userdata);
     }
@@ -0,0 +1,39 @@
+/*
+ * cuboidx - A 3D sandbox game
+ * Copyright (C) 2023  XenFork Union
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package cuboidx.client.texture;
+
+/**
+ * A pending texture holds the pixels decoded off the render thread, until they are uploaded on the render thread.
+ *
+ * @author squid233
+ * @since 0.1.0
+ */
+public interface PendingTexture extends AutoCloseable {
+    /**
+     * Creates the texture and uploads the pixels, then releases them. Must be called from the render thread.
+     *
+     * @return the texture
+     */
+    Texture2D upload();
+
+    /**
+     * Releases the pixels without uploading them.
+     */
+    @Override
+    void close();
+}
@@ -0,0 +1,239 @@
+/*
+ * cuboidx - A 3D sandbox game
+ * Copyright (C) 2023  XenFork Union
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package cuboidx.client.texture;
+
+import cuboidx.client.gl.GLStateMgr;
+import cuboidx.client.gl.RenderSystem;
+import cuboidx.util.ResourceLocation;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import overrungl.opengl.GL;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A texture array holds textures of the same size, a texture a layer.
+ * <p>
+ * Unlike the {@link TextureAtlas atlas}, the textures are not packed, so a texture is addressed by its layer
+ * and the coordinates span the whole texture. The textures repeat, so a quad can tile a texture with the coordinates above 1.
+ * <p>
+ * The size of the layers is the size shared by the most textures;
+ * the textures of other sizes are cropped to it, or padded with transparent pixels, with a warning.
+ *
+ * @author squid233
+ * @since 0.1.0
+ */
+public final class TextureArray extends Texture2D {
+    private static final Logger logger = LogManager.getLogger();
+    public static final ResourceLocation BLOCK_ARRAY = ResourceLocation.cuboidx("texture/array/blocks.png-array");
+    private final Map<ResourceLocation, Integer> layers;
+    private final int layerCount;
+
+    private TextureArray(ResourceLocation location, int width, int height, int layerCount, int mipmapLevel) {
+        super(location, width, height, mipmapLevel);
+        this.layers = HashMap.newHashMap(layerCount);
+        this.layerCount = layerCount;
+    }
+
+    /**
+     * The textures decoded, waiting to be uploaded.
+     *
+     * @param name      the name of the texture array
+     * @param locations the textures, in the order of the layers
+     * @param images    the images of the layers; the layers without a texture are only reached by the missing textures
+     * @param width     the width of the layers
+     * @param height    the height of the layers
+     * @author squid233
+     * @since 0.1.0
+     */
+    public /* value */ record Decoded(ResourceLocation name,
+                                      List<ResourceLocation> locations,
+                                      List<NativeImage> images,
+                                      int width,
+                                      int height) implements PendingTexture {
+        @Override
+        public TextureArray upload() {
+            try (Arena arena = Arena.ofConfined()) {
+                final int lvl = computeMipmapLevel(width, height);
+                final int layerCount = Math.max(1, images.size());
+                final TextureArray array = new TextureArray(name, width, height, layerCount, lvl);
+                final int textureBinding2DArray = GLStateMgr.textureBinding2DArray();
+                RenderSystem.bindTexture2DArray(array);
+                GL.texParameteri(GL.TEXTURE_2D_ARRAY, GL.TEXTURE_MIN_FILTER, GL.NEAREST_MIPMAP_NEAREST);
+                GL.texParameteri(GL.TEXTURE_2D_ARRAY, GL.TEXTURE_MAG_FILTER, GL.NEAREST);
+                GL.texParameteri(GL.TEXTURE_2D_ARRAY, GL.TEXTURE_WRAP_S, GL.REPEAT);
+                GL.texParameteri(GL.TEXTURE_2D_ARRAY, GL.TEXTURE_WRAP_T, GL.REPEAT);
+                GL.texParameteri(GL.TEXTURE_2D_ARRAY, GL.TEXTURE_MAX_LEVEL, lvl);
+                GL.texImage3D(GL.TEXTURE_2D_ARRAY,
+                    0,
+                    GL.RGBA,
+                    width,
+                    height,
+                    layerCount,
+                    0,
+                    GL.RGBA,
+                    GL.UNSIGNED_BYTE,
+                    MemorySegment.NULL
+                );
+                MemorySegment padding = null;
+                for (int i = 0, count = images.size(); i < count; i++) {
+                    final NativeImage image = images.get(i);
+                    if (image.width() < width || image.height() < height) {
+                        // the storage of a layer is undefined until written, so clear it with the zeroed memory first
+                        if (padding == null) padding = arena.allocate((long) width * height * 4);
+                        GL.pixelStorei(GL.UNPACK_ROW_LENGTH, 0);
+                        GL.texSubImage3D(GL.TEXTURE_2D_ARRAY,
+                            0,
+                            0,
+                            0,
+                            i,
+                            width,
+                            height,
+                            1,
+                            GL.RGBA,
+                            GL.UNSIGNED_BYTE,
+                            padding
+                        );
+                    }
+                    // the rows of the image are longer than the layer if it is cropped
+                    GL.pixelStorei(GL.UNPACK_ROW_LENGTH, image.width());
+                    GL.texSubImage3D(GL.TEXTURE_2D_ARRAY,
+                        0,
+                        0,
+                        0,
+                        i,
+                        Math.min(image.width(), width),
+                        Math.min(image.height(), height),
+                        1,
+                        GL.RGBA,
+                        GL.UNSIGNED_BYTE,
+                        image.data()
+                    );
+                    if (i < locations.size()) array.layers.put(locations.get(i), i);
+                }
+                GL.pixelStorei(GL.UNPACK_ROW_LENGTH, 0);
+                if (lvl > 0) GL.generateMipmap(GL.TEXTURE_2D_ARRAY);
+                RenderSystem.bindTexture2DArray(textureBinding2DArray);
+                return array;
+            } finally {
+                close();
+            }
+        }
+
+        @Override
+        public void close() {
+            // release data
+            images.forEach(NativeImage::close);
+        }
+    }
+
+    /**
+     * Decodes and uploads a texture array on the calling thread, which must be the render thread.
+     *
+     * @param name      the name of the texture array
+     * @param locations the textures
+     * @return the texture array
+     */
+    public static TextureArray load(ResourceLocation name, Collection<ResourceLocation> locations) {
+        return decode(name, locations).upload();
+    }
+
+    /**
+     * Decodes the textures on a worker thread, in parallel on virtual threads.
+     *
+     * @param name      the name of the texture array
+     * @param locations the textures
+     * @return the future of the decoded textures, which are to be {@link Decoded#upload() uploaded} on the render thread
+     */
+    public static CompletableFuture<Decoded> decodeAsync(ResourceLocation name, Collection<ResourceLocation> locations) {
+        final List<ResourceLocation> list = List.copyOf(locations);
+        return CompletableFuture.supplyAsync(() -> decode(name, list),
+            runnable -> Thread.ofPlatform().name("Texture-array-decoder").daemon().start(runnable));
+    }
+
+    /**
+     * Decodes the textures. This method can be called from any thread.
+     *
+     * @param name      the name of the texture array
+     * @param locations the textures
+     * @return the decoded textures
+     */
+    public static Decoded decode(ResourceLocation name, Collection<ResourceLocation> locations) {
+        final List<ResourceLocation> sortedLocations = new ArrayList<>(locations);
+        sortedLocations.sort(Comparator.comparing(ResourceLocation::toString));
+        final List<NativeImage> images = NativeImage.loadAll(sortedLocations.stream()
+            .map(location -> STR."\{location.toPath(ResourceLocation.ASSETS, ResourceLocation.TEXTURE)}.png")
+            .toList());
+        final Map<Long, Integer> sizeCounts = new HashMap<>();
+        for (NativeImage image : images) {
+            sizeCounts.merge(((long) image.width() << 32) | image.height(), 1, Integer::sum);
+        }
+        final long size = sizeCounts.entrySet().stream()
+            .max(Map.Entry.comparingByValue())
+            .map(Map.Entry::getKey)
+            .orElse((16L << 32) | 16L);
+        final int width = (int) (size >>> 32);
+        final int height = (int) size;
+        for (int i = 0, count = images.size(); i < count; i++) {
+            final NativeImage image = images.get(i);
+            if (image.width() != width || image.height() != height) {
+                logger.warn("Texture {} with size {}x{} doesn't match the size {}x{} of {}",
+                    sortedLocations.get(i),
+                    image.width(),
+                    image.height(),
+                    width,
+                    height,
+                    name);
+            }
+        }
+        return new Decoded(name, List.copyOf(sortedLocations), images, width, height);
+    }
+
+    /**
+     * Creates a texture array whose only layer is the {@link NativeImage#fail() missing texture}.
+     * Must be called from the render thread.
+     *
+     * @param name the name of the texture array
+     * @return the placeholder texture array
+     */
+    public static TextureArray placeholder(ResourceLocation name) {
+        final NativeImage image = NativeImage.fail();
+        return new Decoded(name, List.of(), List.of(image), image.width(), image.height()).upload();
+    }
+
+    /**
+     * {@return the layer of the given texture, or 0 if the texture is not in this array}
+     *
+     * @param location the location of the texture
+     */
+    public int layerOf(ResourceLocation location) {
+        return layers.getOrDefault(location, 0);
+    }
+
+    public int layerCount() {
+        return layerCount;
+    }
+}
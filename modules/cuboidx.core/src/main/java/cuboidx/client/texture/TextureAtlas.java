@@ -26,125 +26,248 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.overrun.binpacking.*;
 import overrungl.opengl.GL;
-import overrungl.util.MemoryStack;
 
 import java.lang.foreign.MemorySegment;
-import java.lang.foreign.ValueLayout;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 /**
+ * A texture atlas packs textures into a single texture.
+ * <p>
+ * An atlas is built in two steps: the textures are {@link #stitchAsync(ResourceLocation, Collection) stitched}
+ * off the render thread, which decodes them in parallel and packs them, and the {@link Stitched stitched} atlas is then
+ * uploaded on the render thread. Until then, a {@link #placeholder(ResourceLocation) placeholder} can stand in.
+ * The {@link TextureAtlasCache atlas cache} skips the stitching when the textures are unchanged since the last launch.
+ *
  * @author squid233
  * @since 0.1.0
  */
 public final class TextureAtlas extends Texture2D {
     private static final Logger logger = LogManager.getLogger();
     public static final ResourceLocation BLOCK_ATLAS = ResourceLocation.cuboidx("texture/atlas/blocks.png-atlas");
-    private final Map<ResourceLocation, PackerRegion<?>> map;
+    private final Map<ResourceLocation, Sprite> sprites;
 
-    private TextureAtlas(ResourceLocation location, int width, int height, int mipmapLevel, int initialCapacity) {
+    TextureAtlas(ResourceLocation location, int width, int height, int mipmapLevel, int initialCapacity) {
         super(location, width, height, mipmapLevel);
-        this.map = HashMap.newHashMap(initialCapacity);
+        this.sprites = HashMap.newHashMap(initialCapacity);
     }
 
-    public static TextureAtlas load(ResourceLocation name, ResourceLocation... locations) {
-        return load(name, Set.of(locations));
+    /**
+     * A texture in the atlas.
+     *
+     * @param x      the x offset in pixels
+     * @param y      the y offset in pixels
+     * @param width  the width in pixels
+     * @param height the height in pixels
+     * @param u0     the normalized left
+     * @param v0     the normalized top
+     * @param u1     the normalized right
+     * @param v1     the normalized bottom
+     * @author squid233
+     * @since 0.1.0
+     */
+    public /* value */ record Sprite(int x, int y, int width, int height, float u0, float v0, float u1, float v1) {
     }
 
-    public static TextureAtlas load(ResourceLocation name, Collection<ResourceLocation> locations) {
-        final GrowingPacker packer = new GrowingPacker();
-        final ArrayList<NativeImage.Region<ResourceLocation>> regions = new ArrayList<>();
-        try {
-            for (ResourceLocation location : locations) {
-                regions.add(NativeImage.load(STR. "\{ location.toPath(ResourceLocation.ASSETS, ResourceLocation.TEXTURE) }.png" )
-                    .toRegion(location));
-            }
-            packer.fit(Packer.sort(regions));
-
-            final int width = MathUtil.nearestPOT(packer.width());
-            final int height = MathUtil.nearestPOT(packer.height());
-            final TextureAtlas atlas;
-            final int textureBinding2D = GLStateMgr.textureBinding2D();
-
-            // compute mipmap level
-            final int lvl;
-            try (MemoryStack stack = MemoryStack.stackPush()) {
-                final MemorySegment seg = stack.ints(-1, 0);
-                regions.forEach(region -> region.ifFitPresent((r, f) -> {
-                    final int rw = r.width();
-                    final int rh = r.height();
-                    final int currLvl = seg.get(ValueLayout.JAVA_INT, 0);
-                    final int newLvl = computeMipmapLevel(rw, rh);
-                    if (currLvl == -1) {
-                        seg.set(ValueLayout.JAVA_INT, 0, newLvl);
-                        seg.set(ValueLayout.JAVA_INT, 4, newLvl);
-                    } else if (newLvl < currLvl) {
-                        logger.warn("Texture {} with size {}x{} limits mip level from {} to {}",
-                            r.userdata(),
-                            rw,
-                            rh,
-                            currLvl,
-                            newLvl);
-                        seg.set(ValueLayout.JAVA_INT, 0, newLvl);
-                    }
-                }));
-                final int i = seg.get(ValueLayout.JAVA_INT, 0);
-                final int maxLevel = seg.get(ValueLayout.JAVA_INT, 4);
-                lvl = i == -1 ? 0 : i;
-                if (lvl < maxLevel) {
-                    logger.warn("{}: dropping mipmap level from {} to {}",
-                        name,
-                        maxLevel,
-                        lvl);
-                }
-                atlas = new TextureAtlas(name, width, height, lvl, locations.size());
+    /**
+     * The textures decoded and packed, waiting to be uploaded.
+     *
+     * @param name        the name of the atlas
+     * @param regions     the packed textures
+     * @param width       the width of the atlas
+     * @param height      the height of the atlas
+     * @param mipmapLevel the mipmap level
+     * @author squid233
+     * @since 0.1.0
+     */
+    public /* value */ record Stitched(ResourceLocation name,
+                                       List<NativeImage.Region<ResourceLocation>> regions,
+                                       int width,
+                                       int height,
+                                       int mipmapLevel) implements PendingTexture {
+        @Override
+        public TextureAtlas upload() {
+            try {
+                final TextureAtlas atlas = new TextureAtlas(name, width, height, mipmapLevel, regions.size());
+                final int textureBinding2D = GLStateMgr.textureBinding2D();
                 RenderSystem.bindTexture2D(atlas);
                 GL.texParameteri(GL.TEXTURE_2D, GL.TEXTURE_MIN_FILTER, GL.NEAREST_MIPMAP_NEAREST);
                 GL.texParameteri(GL.TEXTURE_2D, GL.TEXTURE_MAG_FILTER, GL.NEAREST);
-                GL.texParameteri(GL.TEXTURE_2D, GL.TEXTURE_MAX_LEVEL, lvl);
+                GL.texParameteri(GL.TEXTURE_2D, GL.TEXTURE_MAX_LEVEL, mipmapLevel);
+                // write data
+                GL.texImage2D(GL.TEXTURE_2D,
+                    0,
+                    GL.RGBA,
+                    width,
+                    height,
+                    0,
+                    GL.RGBA,
+                    GL.UNSIGNED_BYTE,
+                    MemorySegment.NULL
+                );
+                regions.forEach(region -> region.<NativeImage.Region<ResourceLocation>>ifFitPresent(
+                    (r, f) -> {
+                        GL.texSubImage2D(GL.TEXTURE_2D,
+                            0,
+                            f.x(),
+                            f.y(),
+                            r.width(),
+                            r.height(),
+                            GL.RGBA,
+                            GL.UNSIGNED_BYTE,
+                            r.image().data()
+                        );
+                        atlas.putSprite(r.userdata(), f.x(), f.y(), r.width(), r.height());
+                    }));
+
+                if (mipmapLevel > 0) GL.generateMipmap(GL.TEXTURE_2D);
+                RenderSystem.bindTexture2D(textureBinding2D);
+                return atlas;
+            } finally {
+                close();
             }
-            // write data
-            GL.texImage2D(GL.TEXTURE_2D,
-                0,
-                GL.RGBA,
-                width,
-                height,
-                0,
-                GL.RGBA,
-                GL.UNSIGNED_BYTE,
-                MemorySegment.NULL
-            );
-            regions.forEach(region -> region.<NativeImage.Region<ResourceLocation>>ifFitPresent(
-                (r, f) -> {
-                    GL.texSubImage2D(GL.TEXTURE_2D,
-                        0,
-                        f.x(),
-                        f.y(),
-                        r.width(),
-                        r.height(),
-                        GL.RGBA,
-                        GL.UNSIGNED_BYTE,
-                        r.image().data()
-                    );
-                    atlas.map.put(r.userdata(), r);
-                }));
-
-            if (lvl > 0) GL.generateMipmap(GL.TEXTURE_2D);
-            RenderSystem.bindTexture2D(textureBinding2D);
-            return atlas;
-        } finally {
+        }
+
+        @Override
+        public void close() {
             // release data
             regions.forEach(region -> region.image().close());
         }
     }
 
-    public Optional<PackerFitPos> getOffset(ResourceLocation location) {
-        if (map.containsKey(location))
-            return map.get(location).fit();
-        return Optional.empty();
+    public static TextureAtlas load(ResourceLocation name, ResourceLocation... locations) {
+        return load(name, Set.of(locations));
+    }
+
+    /**
+     * Stitches and uploads an atlas on the calling thread, which must be the render thread.
+     *
+     * @param name      the name of the atlas
+     * @param locations the textures
+     * @return the atlas
+     */
+    public static TextureAtlas load(ResourceLocation name, Collection<ResourceLocation> locations) {
+        return stitch(name, locations).upload();
+    }
+
+    /**
+     * Stitches an atlas on a worker thread. The textures are decoded in parallel on virtual threads.
+     *
+     * @param name      the name of the atlas
+     * @param locations the textures
+     * @return the future of the stitched atlas, which is to be {@link Stitched#upload() uploaded} on the render thread
+     */
+    public static CompletableFuture<Stitched> stitchAsync(ResourceLocation name, Collection<ResourceLocation> locations) {
+        final List<ResourceLocation> list = List.copyOf(locations);
+        return CompletableFuture.supplyAsync(() -> stitch(name, list),
+            runnable -> Thread.ofPlatform().name("Atlas-stitcher").daemon().start(runnable));
+    }
+
+    /**
+     * Decodes and packs the textures. This method can be called from any thread.
+     *
+     * @param name      the name of the atlas
+     * @param locations the textures
+     * @return the stitched atlas
+     */
+    public static Stitched stitch(ResourceLocation name, Collection<ResourceLocation> locations) {
+        final GrowingPacker packer = new GrowingPacker();
+        final List<ResourceLocation> list = List.copyOf(locations);
+        final List<NativeImage> images = NativeImage.loadAll(list.stream()
+            .map(location -> STR. "\{ location.toPath(ResourceLocation.ASSETS, ResourceLocation.TEXTURE) }.png" )
+            .toList());
+        final ArrayList<NativeImage.Region<ResourceLocation>> regions = new ArrayList<>(images.size());
+        for (int i = 0, size = images.size(); i < size; i++) {
+            regions.add(images.get(i).toRegion(list.get(i)));
+        }
+        packer.fit(Packer.sort(regions));
+
+        final int width = MathUtil.nearestPOT(packer.width());
+        final int height = MathUtil.nearestPOT(packer.height());
+
+        // compute mipmap level
+        int lvl = -1;
+        int maxLevel = -1;
+        for (NativeImage.Region<ResourceLocation> r : regions) {
+            if (r.fit().isEmpty()) continue;
+            final int rw = r.width();
+            final int rh = r.height();
+            final int newLvl = computeMipmapLevel(rw, rh);
+            if (lvl == -1) {
+                lvl = newLvl;
+                maxLevel = newLvl;
+            } else if (newLvl < lvl) {
+                logger.warn("Texture {} with size {}x{} limits mip level from {} to {}",
+                    r.userdata(),
+                    rw,
+                    rh,
+                    lvl,
+                    newLvl);
+                lvl = newLvl;
+            }
+        }
+        if (lvl == -1) lvl = 0;
+        if (lvl < maxLevel) {
+            logger.warn("{}: dropping mipmap level from {} to {}",
+                name,
+                maxLevel,
+                lvl);
+        }
+        return new Stitched(name, regions, width, height, lvl);
+    }
+
+    /**
+     * Creates an atlas without textures, whose only texture is the {@link NativeImage#fail() missing texture}.
+     * All textures are looked up at its origin. Must be called from the render thread.
+     *
+     * @param name the name of the atlas
+     * @return the placeholder atlas
+     */
+    public static TextureAtlas placeholder(ResourceLocation name) {
+        final NativeImage image = NativeImage.fail();
+        final TextureAtlas atlas = new TextureAtlas(name, image.width(), image.height(), 0, 0);
+        final int textureBinding2D = GLStateMgr.textureBinding2D();
+        RenderSystem.bindTexture2D(atlas);
+        GL.texParameteri(GL.TEXTURE_2D, GL.TEXTURE_MIN_FILTER, GL.NEAREST);
+        GL.texParameteri(GL.TEXTURE_2D, GL.TEXTURE_MAG_FILTER, GL.NEAREST);
+        GL.texParameteri(GL.TEXTURE_2D, GL.TEXTURE_MAX_LEVEL, 0);
+        GL.texImage2D(GL.TEXTURE_2D,
+            0,
+            GL.RGBA,
+            image.width(),
+            image.height(),
+            0,
+            GL.RGBA,
+            GL.UNSIGNED_BYTE,
+            image.data()
+        );
+        RenderSystem.bindTexture2D(textureBinding2D);
+        return atlas;
+    }
+
+    void putSprite(ResourceLocation location, int x, int y, int width, int height) {
+        sprites.put(location, new Sprite(x, y, width, height,
+            normalizeU(x),
+            normalizeV(y),
+            normalizeU(x + width),
+            normalizeV(y + height)));
+    }
+
+    /**
+     * {@return the sprite of the given texture, or {@code null} if the texture is not in this atlas}
+     * The coordinates are normalized once when the atlas is created, instead of for each face.
+     *
+     * @param location the location of the texture
+     */
+    public Sprite getSprite(ResourceLocation location) {
+        return sprites.get(location);
     }
 
-    public Optional<PackerRegionSize> getSize(ResourceLocation location) {
-        return Optional.ofNullable(map.get(location));
+    /**
+     * {@return the sprites by the locations of their textures}
+     */
+    public Map<ResourceLocation, Sprite> sprites() {
+        return Collections.unmodifiableMap(sprites);
     }
 
     public float normalizeU(int offset) {
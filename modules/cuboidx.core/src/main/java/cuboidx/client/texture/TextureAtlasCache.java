@@ -0,0 +1,360 @@
+/*
+ * cuboidx - A 3D sandbox game
+ * Copyright (C) 2023  XenFork Union
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package cuboidx.client.texture;
+
+import cuboidx.client.gl.GLStateMgr;
+import cuboidx.client.gl.RenderSystem;
+import cuboidx.util.FileUtil;
+import cuboidx.util.ResourceLocation;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import overrungl.opengl.GL;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The atlas cache stores stitched atlases on disk, so that the next launch skips decoding, packing and mipmap generation.
+ * <p>
+ * A cache file holds the pixels of all mipmap levels of an atlas and its sprites,
+ * and is keyed by a SHA-256 hash of the locations and the encoded contents of the textures.
+ * On a hit, the file is memory-mapped and the levels are uploaded directly from the mapping.
+ * On a miss, the atlas is stitched as usual, and its levels are read back after uploading and written to the cache.
+ * A file whose key doesn't match is overwritten, so there is a single file per atlas.
+ * <p>
+ * The file is written in the native byte order; it is a cache of this machine, not a format to exchange.
+ * The rows of the RGBA levels are always 4-byte aligned, so the default pixel store alignment is kept.
+ *
+ * @author squid233
+ * @since 0.1.0
+ */
+public final class TextureAtlasCache {
+    private static final Logger logger = LogManager.getLogger();
+    private static final int MAGIC = 0x43584154; // CXAT
+    private static final int VERSION = 1;
+    private static final int KEY_SIZE = 32;
+    private static final ValueLayout.OfInt INT = ValueLayout.JAVA_INT_UNALIGNED;
+    private final Path directory;
+
+    /**
+     * Creates the cache.
+     *
+     * @param directory the directory of the cache files
+     */
+    public TextureAtlasCache(Path directory) {
+        this.directory = directory;
+    }
+
+    private static String texturePath(ResourceLocation location) {
+        return STR."\{location.toPath(ResourceLocation.ASSETS, ResourceLocation.TEXTURE)}.png";
+    }
+
+    /**
+     * Loads an atlas from the cache, or stitches it on a miss, on a worker thread.
+     *
+     * @param name      the name of the atlas
+     * @param locations the textures
+     * @return the future of the atlas, which is to be uploaded on the render thread
+     */
+    public CompletableFuture<PendingTexture> loadAsync(ResourceLocation name, Collection<ResourceLocation> locations) {
+        final List<ResourceLocation> list = List.copyOf(locations);
+        return CompletableFuture.supplyAsync(() -> load(name, list),
+            runnable -> Thread.ofPlatform().name("Atlas-stitcher").daemon().start(runnable));
+    }
+
+    /**
+     * Loads an atlas from the cache, or stitches it on a miss. This method can be called from any thread.
+     *
+     * @param name      the name of the atlas
+     * @param locations the textures
+     * @return the atlas to be uploaded on the render thread
+     */
+    public PendingTexture load(ResourceLocation name, Collection<ResourceLocation> locations) {
+        final byte[] key = computeKey(name, locations);
+        if (key != null) {
+            final Cached cached = read(name, key);
+            if (cached != null) {
+                logger.info("Loaded {} from the cache", name);
+                return cached;
+            }
+        }
+        final TextureAtlas.Stitched stitched = TextureAtlas.stitch(name, locations);
+        return key == null ? stitched : new Caching(this, stitched, key);
+    }
+
+    /**
+     * Hashes the locations and the encoded contents of the textures, in the order of the locations.
+     *
+     * @return the key, or {@code null} if a texture can't be read
+     */
+    private static byte[] computeKey(ResourceLocation name, Collection<ResourceLocation> locations) {
+        final List<ResourceLocation> sorted = new ArrayList<>(locations);
+        sorted.sort(Comparator.comparing(ResourceLocation::toString));
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(STR."\{VERSION}:\{name}".getBytes(StandardCharsets.UTF_8));
+            for (ResourceLocation location : sorted) {
+                digest.update(location.toString().getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+                digest.update(FileUtil.readBinary(texturePath(location), 8192).asByteBuffer());
+            }
+            return digest.digest();
+        } catch (IOException | NoSuchAlgorithmException e) {
+            logger.warn("Couldn't compute the cache key of {}; not caching", name, e);
+            return null;
+        }
+    }
+
+    private Cached read(ResourceLocation name, byte[] key) {
+        final Path file = FileUtil.cacheFileOf(directory, name);
+        if (!Files.isRegularFile(file)) return null;
+        final Arena arena = Arena.ofShared();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final MemorySegment segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size(), arena);
+            long offset = 0;
+            if (segment.get(INT, offset) != MAGIC || segment.get(INT, offset + 4) != VERSION) {
+                arena.close();
+                return null;
+            }
+            offset += 8;
+            if (!Arrays.equals(segment.asSlice(offset, KEY_SIZE).toArray(ValueLayout.JAVA_BYTE), key)) {
+                logger.info("The cache of {} is stale", name);
+                arena.close();
+                return null;
+            }
+            offset += KEY_SIZE;
+            final int width = segment.get(INT, offset);
+            final int height = segment.get(INT, offset + 4);
+            final int mipmapLevel = segment.get(INT, offset + 8);
+            final int spriteCount = segment.get(INT, offset + 12);
+            offset += 16;
+            final Map<ResourceLocation, int[]> sprites = HashMap.newHashMap(spriteCount);
+            for (int i = 0; i < spriteCount; i++) {
+                final int length = segment.get(INT, offset);
+                offset += 4;
+                final String location = new String(segment.asSlice(offset, length).toArray(ValueLayout.JAVA_BYTE), StandardCharsets.UTF_8);
+                offset += length;
+                sprites.put(ResourceLocation.of(location), new int[]{
+                    segment.get(INT, offset),
+                    segment.get(INT, offset + 4),
+                    segment.get(INT, offset + 8),
+                    segment.get(INT, offset + 12)
+                });
+                offset += 16;
+            }
+            final MemorySegment[] levels = new MemorySegment[mipmapLevel + 1];
+            for (int level = 0; level <= mipmapLevel; level++) {
+                final long size = levelSize(width, height, level);
+                levels[level] = segment.asSlice(offset, size);
+                offset += size;
+            }
+            return new Cached(name, arena, width, height, mipmapLevel, sprites, levels);
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Couldn't read the cache of {}", name, e);
+            arena.close();
+            return null;
+        }
+    }
+
+    private static int levelExtent(int extent, int level) {
+        return Math.max(1, extent >> level);
+    }
+
+    private static long levelSize(int width, int height, int level) {
+        return (long) levelExtent(width, level) * levelExtent(height, level) * 4;
+    }
+
+    /**
+     * Reads back the levels of the given atlas and writes them to the cache on a virtual thread.
+     * Must be called from the render thread.
+     */
+    private void write(TextureAtlas atlas, byte[] key) {
+        final int width = atlas.width();
+        final int height = atlas.height();
+        final int mipmapLevel = atlas.mipmapLevel();
+        final Arena arena = Arena.ofShared();
+        final MemorySegment[] levels = new MemorySegment[mipmapLevel + 1];
+        final int textureBinding2D = GLStateMgr.textureBinding2D();
+        RenderSystem.bindTexture2D(atlas);
+        for (int level = 0; level <= mipmapLevel; level++) {
+            levels[level] = arena.allocate(levelSize(width, height, level));
+            GL.getTexImage(GL.TEXTURE_2D, level, GL.RGBA, GL.UNSIGNED_BYTE, levels[level]);
+        }
+        RenderSystem.bindTexture2D(textureBinding2D);
+        final Map<ResourceLocation, TextureAtlas.Sprite> sprites = Map.copyOf(atlas.sprites());
+        final ResourceLocation name = atlas.location();
+
+        Thread.ofVirtual().name("Atlas-cache-writer").start(() -> {
+            try {
+                FileUtil.writeAtomically(FileUtil.cacheFileOf(directory, name), "atlas", channel -> {
+                    try (Arena headerArena = Arena.ofConfined()) {
+                        final List<byte[]> names = new ArrayList<>(sprites.size());
+                        long headerSize = 8 + KEY_SIZE + 16;
+                        for (ResourceLocation location : sprites.keySet()) {
+                            final byte[] bytes = location.toString().getBytes(StandardCharsets.UTF_8);
+                            names.add(bytes);
+                            headerSize += 4 + bytes.length + 16;
+                        }
+                        final MemorySegment header = headerArena.allocate(headerSize);
+                        long offset = 0;
+                        header.set(INT, offset, MAGIC);
+                        header.set(INT, offset + 4, VERSION);
+                        offset += 8;
+                        MemorySegment.copy(key, 0, header, ValueLayout.JAVA_BYTE, offset, KEY_SIZE);
+                        offset += KEY_SIZE;
+                        header.set(INT, offset, width);
+                        header.set(INT, offset + 4, height);
+                        header.set(INT, offset + 8, mipmapLevel);
+                        header.set(INT, offset + 12, sprites.size());
+                        offset += 16;
+                        int i = 0;
+                        for (TextureAtlas.Sprite sprite : sprites.values()) {
+                            final byte[] bytes = names.get(i++);
+                            header.set(INT, offset, bytes.length);
+                            offset += 4;
+                            MemorySegment.copy(bytes, 0, header, ValueLayout.JAVA_BYTE, offset, bytes.length);
+                            offset += bytes.length;
+                            header.set(INT, offset, sprite.x());
+                            header.set(INT, offset + 4, sprite.y());
+                            header.set(INT, offset + 8, sprite.width());
+                            header.set(INT, offset + 12, sprite.height());
+                            offset += 16;
+                        }
+                        FileUtil.writeFully(channel, header.asByteBuffer());
+                        for (MemorySegment level : levels) {
+                            FileUtil.writeFully(channel, level.asByteBuffer());
+                        }
+                    }
+                });
+                logger.info("Wrote {} to the cache", name);
+            } catch (IOException e) {
+                logger.warn("Couldn't write the cache of {}", name, e);
+            } finally {
+                arena.close();
+            }
+        });
+    }
+
+    /**
+     * An atlas loaded from the cache, whose levels are mapped from the cache file.
+     *
+     * @author squid233
+     * @since 0.1.0
+     */
+    private static final class Cached implements PendingTexture {
+        private final ResourceLocation name;
+        private final Arena arena;
+        private final int width;
+        private final int height;
+        private final int mipmapLevel;
+        private final Map<ResourceLocation, int[]> sprites;
+        private final MemorySegment[] levels;
+
+        private Cached(ResourceLocation name,
+                       Arena arena,
+                       int width,
+                       int height,
+                       int mipmapLevel,
+                       Map<ResourceLocation, int[]> sprites,
+                       MemorySegment[] levels) {
+            this.name = name;
+            this.arena = arena;
+            this.width = width;
+            this.height = height;
+            this.mipmapLevel = mipmapLevel;
+            this.sprites = sprites;
+            this.levels = levels;
+        }
+
+        @Override
+        public TextureAtlas upload() {
+            try {
+                final TextureAtlas atlas = new TextureAtlas(name, width, height, mipmapLevel, sprites.size());
+                final int textureBinding2D = GLStateMgr.textureBinding2D();
+                RenderSystem.bindTexture2D(atlas);
+                GL.texParameteri(GL.TEXTURE_2D, GL.TEXTURE_MIN_FILTER, GL.NEAREST_MIPMAP_NEAREST);
+                GL.texParameteri(GL.TEXTURE_2D, GL.TEXTURE_MAG_FILTER, GL.NEAREST);
+                GL.texParameteri(GL.TEXTURE_2D, GL.TEXTURE_MAX_LEVEL, mipmapLevel);
+                // the levels are uploaded as they are, without generating them again
+                for (int level = 0; level <= mipmapLevel; level++) {
+                    GL.texImage2D(GL.TEXTURE_2D,
+                        level,
+                        GL.RGBA,
+                        levelExtent(width, level),
+                        levelExtent(height, level),
+                        0,
+                        GL.RGBA,
+                        GL.UNSIGNED_BYTE,
+                        levels[level]
+                    );
+                }
+                sprites.forEach((location, sprite) -> atlas.putSprite(location, sprite[0], sprite[1], sprite[2], sprite[3]));
+                RenderSystem.bindTexture2D(textureBinding2D);
+                return atlas;
+            } finally {
+                close();
+            }
+        }
+
+        @Override
+        public void close() {
+            arena.close();
+        }
+    }
+
+    /**
+     * A stitched atlas, which is written to the cache after it is uploaded.
+     *
+     * @param cache    the cache
+     * @param stitched the stitched atlas
+     * @param key      the key of the textures
+     * @author squid233
+     * @since 0.1.0
+     */
+    private /* value */ record Caching(TextureAtlasCache cache, TextureAtlas.Stitched stitched,
+                                       byte[] key) implements PendingTexture {
+        @Override
+        public TextureAtlas upload() {
+            final TextureAtlas atlas = stitched.upload();
+            cache.write(atlas, key);
+            return atlas;
+        }
+
+        @Override
+        public void close() {
+            stitched.close();
+        }
+    }
+}
@@ -22,16 +22,19 @@ import cuboidx.util.ResourceLocation;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
+ * The texture manager holds the textures by their locations.
+ * The textures are added and closed on the render thread, and can be looked up from any thread.
+ *
  * @author squid233
  * @since 0.1.0
  */
 public final class TextureManager implements AutoCloseable {
     private static final Logger logger = LogManager.getLogger();
-    private final Map<ResourceLocation, Texture2D> textureMap = HashMap.newHashMap(48);
+    private final Map<ResourceLocation, Texture2D> textureMap = new ConcurrentHashMap<>(48);
 
     public boolean contains(ResourceLocation location) {
         return textureMap.containsKey(location);
@@ -54,6 +57,10 @@ public final class TextureManager implements AutoCloseable {
         return get(location) instanceof TextureAtlas atlas ? atlas : null;
     }
 
+    public TextureArray getAsArray(ResourceLocation location) {
+        return get(location) instanceof TextureArray array ? array : null;
+    }
+
     @Override
     public void close() {
         textureMap.values().forEach(Texture2D::close);
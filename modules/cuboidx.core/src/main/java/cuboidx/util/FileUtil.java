@@ -30,9 +30,12 @@ import java.lang.foreign.Arena;
 import java.lang.foreign.MemorySegment;
 import java.lang.foreign.ValueLayout;
 import java.net.URI;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.Objects;
 
 /**
@@ -121,6 +124,70 @@ public final class FileUtil {
         }
     }
 
+    /**
+     * Writes the content of a file.
+     *
+     * @author squid233
+     * @since 0.1.0
+     */
+    @FunctionalInterface
+    public interface ChannelWriter {
+        void write(FileChannel channel) throws IOException;
+    }
+
+    /**
+     * {@return the cache file of the given resource in the given directory}
+     * The characters of the location that are not safe in a file name are replaced.
+     *
+     * @param directory the directory of the cache files
+     * @param location  the location of the resource
+     */
+    public static Path cacheFileOf(Path directory, ResourceLocation location) {
+        return directory.resolve(STR."\{location.namespace()}_\{location.path().replaceAll("[^A-Za-z0-9._-]", "_")}.bin");
+    }
+
+    /**
+     * Writes a file through a temporary file in the same directory, which then replaces the file,
+     * so that a reader never sees a partial file. The directory is created if absent.
+     * The temporary file is deleted if the writing fails.
+     *
+     * @param file   the file
+     * @param prefix the prefix of the name of the temporary file
+     * @param writer the writer of the content
+     * @throws IOException if the file can't be written
+     */
+    public static void writeAtomically(Path file, String prefix, ChannelWriter writer) throws IOException {
+        final Path directory = file.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        final Path temp = Files.createTempFile(directory, prefix, ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                writer.write(channel);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Writes all remaining bytes of the given buffer to the given channel.
+     *
+     * @param channel the channel
+     * @param buffer  the buffer
+     * @throws IOException if an I/O error occurs
+     */
+    public static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
     private static MemorySegment resizeSegment(Arena arena, MemorySegment segment, long newCapacity) {
         return arena.allocate(newCapacity).copyFrom(segment);
     }
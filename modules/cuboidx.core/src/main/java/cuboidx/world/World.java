@@ -112,9 +112,23 @@ public final class World {
     }
 
     public void setBlock(int x, int y, int z, BlockType block) {
+        setBlock(x, y, z, block, false);
+    }
+
+    /**
+     * Sets the block at the given position.
+     *
+     * @param x           the x position
+     * @param y           the y position
+     * @param z           the z position
+     * @param block       the block
+     * @param interactive {@code true} if the change is made by the player and should be shown as soon as possible
+     */
+    public void setBlock(int x, int y, int z, BlockType block, boolean interactive) {
+        final BlockType oldBlock = getBlock(x, y, z);
         if (initBlock(x, y, z, block)) {
             for (WorldListener listener : listeners) {
-                listener.onBlockChanged(x, y, z, block);
+                listener.onBlockChanged(x, y, z, oldBlock, block, interactive);
             }
         }
     }
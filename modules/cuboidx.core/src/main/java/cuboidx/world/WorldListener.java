@@ -25,5 +25,15 @@ import cuboidx.world.block.BlockType;
  * @since 0.1.0
  */
 public interface WorldListener {
-    void onBlockChanged(int x, int y, int z, BlockType newBlock);
+    /**
+     * Called when a block is changed.
+     *
+     * @param x           the x position
+     * @param y           the y position
+     * @param z           the z position
+     * @param oldBlock    the block before the change
+     * @param newBlock    the new block
+     * @param interactive {@code true} if the change is made by the player and should be shown as soon as possible
+     */
+    void onBlockChanged(int x, int y, int z, BlockType oldBlock, BlockType newBlock, boolean interactive);
 }
@@ -52,5 +52,6 @@ module cuboidx.core {
     requires org.apache.logging.log4j;
     requires org.apache.logging.log4j.core;
     requires org.joml;
+    requires jdk.incubator.vector;
     requires static org.jetbrains.annotations;
 }
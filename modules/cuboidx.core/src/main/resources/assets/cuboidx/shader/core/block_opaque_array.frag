@@ -0,0 +1,14 @@
+#version 330
+
+in vec4 vertexColor;
+in vec3 texCoord0;
+
+out vec4 FragColor;
+
+uniform vec4 ColorModulator;
+uniform sampler2DArray Sampler0;
+
+void main() {
+    vec4 color = texture(Sampler0, texCoord0) * vertexColor * ColorModulator;
+    FragColor = vec4(color.rgb, 1.0);
+}
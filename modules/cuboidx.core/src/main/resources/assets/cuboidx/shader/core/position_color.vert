@@ -5,9 +5,13 @@ in vec4 Color;
 
 out vec4 vertexColor;
 
-uniform mat4 ProjectionMatrix, ModelViewMatrix;
+layout(std140) uniform Camera {
+    mat4 ProjectionMatrix;
+    mat4 ViewMatrix;
+};
+uniform mat4 ModelMatrix;
 
 void main() {
-    gl_Position = ProjectionMatrix * ModelViewMatrix * vec4(Position, 1.0);
+    gl_Position = ProjectionMatrix * ViewMatrix * ModelMatrix * vec4(Position, 1.0);
     vertexColor = Color;
 }
@@ -7,10 +7,14 @@ in vec2 UV0;
 out vec4 vertexColor;
 out vec2 texCoord0;
 
-uniform mat4 ProjectionMatrix, ModelViewMatrix;
+layout(std140) uniform Camera {
+    mat4 ProjectionMatrix;
+    mat4 ViewMatrix;
+};
+uniform mat4 ModelMatrix;
 
 void main() {
-    gl_Position = ProjectionMatrix * ModelViewMatrix * vec4(Position, 1.0);
+    gl_Position = ProjectionMatrix * ViewMatrix * ModelMatrix * vec4(Position, 1.0);
     vertexColor = Color;
     texCoord0 = UV0;
 }
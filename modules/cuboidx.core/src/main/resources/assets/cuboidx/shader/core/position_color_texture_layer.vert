@@ -0,0 +1,21 @@
+#version 330
+
+in vec3 Position;
+in vec4 Color;
+in vec2 UV0;
+in float Layer;
+
+out vec4 vertexColor;
+out vec3 texCoord0;
+
+layout(std140) uniform Camera {
+    mat4 ProjectionMatrix;
+    mat4 ViewMatrix;
+};
+uniform mat4 ModelMatrix;
+
+void main() {
+    gl_Position = ProjectionMatrix * ViewMatrix * ModelMatrix * vec4(Position, 1.0);
+    vertexColor = Color;
+    texCoord0 = vec3(UV0, Layer);
+}